@@ -1,14 +1,10 @@
 package org.xblackcat.adventofcode.year2020;
 
-import gnu.trove.list.TIntList;
-import gnu.trove.list.array.TIntArrayList;
-import gnu.trove.set.TLongSet;
-import gnu.trove.set.hash.TLongHashSet;
-
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.math.BigInteger;
 import java.util.Arrays;
 
 /**
@@ -147,78 +143,116 @@ import java.util.Arrays;
  * What is the total number of distinct ways you can arrange the adapters to connect the charging outlet to your device?
  */
 public class Day10 {
+    private static final int MAX_GAP = 3;
+
     public static void main(String[] args) throws IOException {
         // Part 1
-        final TLongSet charges = getCharges("/year2020/day10.txt");
+        final int[] adapters = sort(getCharges("/year2020/day10.txt"));
 
-        int[] diff = new int[3];
-        diff[2] = 1; // count last outlet diff
+        int[] diff = new int[MAX_GAP];
+        diff[MAX_GAP - 1] = 1; // count last outlet diff
 
-        TIntList sequences = new TIntArrayList();
-        TIntList diffs = new TIntArrayList();
-        int currentSequence = 0;
-        boolean inSequence = false;
-        long value = 0;
-        while (!charges.isEmpty()) {
-            boolean found = false;
-            for (int i = 1; i <= 3; i++) {
-                if (charges.contains(value + i)) {
-                    if (i == 3) {
-                        if (inSequence) {
-                            inSequence = false;
-                            if (currentSequence > 1) {
-                                sequences.add(currentSequence);
-                            }
-                            currentSequence = 0;
-                        }
-                    } else if (i == 1) {
-                        currentSequence++;
-                        inSequence = true;
-                    }
-                    diff[i - 1]++;
-                    diffs.add(i);
-                    value += i;
-                    found = true;
-                    break;
-                }
-            }
-
-            if (!found) {
+        int value = 0;
+        for (int adapter : adapters) {
+            final int gap = adapter - value;
+            if (gap < 1 || gap > MAX_GAP) {
                 System.out.println("No next value from " + value);
-                break;
+                return;
             }
-        }
-
-        if (currentSequence > 1) {
-            sequences.add(currentSequence);
+            diff[gap - 1]++;
+            value = adapter;
         }
 
         final long deviceValue = value + 3;
         System.out.println("Charges counts are: " + Arrays.toString(diff) + ", max charge value = " + deviceValue);
         System.out.println("Product: " + (diff[0] * diff[2]));
 
-        System.out.println("Diffs: " + diffs.toString());
-        System.out.println("Sequence of ones: " + Arrays.toString(sequences.toArray()));
-
         // Part 2
-        // I'm too lazy so I just hardcode amount for combinations of 2, 3 and 4 ones
-        long result = Arrays.stream(sequences.toArray()).mapToLong(it -> switch (it) {
-            case 2 -> 2;
-            case 3 -> 4;
-            case 4 -> 7;
-            default -> 1; // Just in case - should be never happened
-        }).reduce((left, right) -> left * right).orElseThrow();
-        System.out.println("Amount of variants: " + result);
+        System.out.println("Amount of variants: " + countArrangements(adapters));
+        System.out.println("Amount of variants modulo 1e9+7: " + countArrangements(adapters, 1_000_000_007));
+    }
+
+    /**
+     * Counts chains from the outlet (0 jolts) to the last adapter: ways to reach an adapter is a sum of ways to reach
+     * all adapters lower by at most {@link #MAX_GAP} jolts. The sum over the sliding window is kept incrementally.
+     *
+     * @param adapters sorted adapter joltages
+     * @param modulus  prime to count the amount modulo
+     */
+    static long countArrangements(int[] adapters, long modulus) {
+        final long[] ways = new long[adapters.length];
+        long windowSum = 1; // the outlet
+        int windowStart = -1; // -1 stands for the outlet
+        for (int i = 0; i < adapters.length; i++) {
+            while (windowStart < i && adapters[i] - joltage(adapters, windowStart) > MAX_GAP) {
+                windowSum = Math.floorMod(windowSum - (windowStart < 0 ? 1 : ways[windowStart]), modulus);
+                windowStart++;
+            }
+            ways[i] = windowSum;
+            windowSum = (windowSum + ways[i]) % modulus;
+        }
+        return adapters.length == 0 ? 1 : ways[adapters.length - 1];
+    }
+
+    /**
+     * The same as {@link #countArrangements(int[], long)} but counts the exact amount.
+     */
+    static BigInteger countArrangements(int[] adapters) {
+        final BigInteger[] ways = new BigInteger[adapters.length];
+        BigInteger windowSum = BigInteger.ONE;
+        int windowStart = -1;
+        for (int i = 0; i < adapters.length; i++) {
+            while (windowStart < i && adapters[i] - joltage(adapters, windowStart) > MAX_GAP) {
+                if (windowStart < 0) {
+                    windowSum = windowSum.subtract(BigInteger.ONE);
+                } else {
+                    windowSum = windowSum.subtract(ways[windowStart]);
+                    // The value is not needed anymore
+                    ways[windowStart] = null;
+                }
+                windowStart++;
+            }
+            ways[i] = windowSum;
+            windowSum = windowSum.add(ways[i]);
+        }
+        return adapters.length == 0 ? BigInteger.ONE : ways[adapters.length - 1];
+    }
+
+    private static int joltage(int[] adapters, int idx) {
+        return idx < 0 ? 0 : adapters[idx];
+    }
+
+    /**
+     * Counting sort of joltages
+     */
+    private static int[] sort(int[] values) {
+        int max = 0;
+        for (int v : values) {
+            if (v < 0) {
+                throw new IllegalArgumentException("Negative joltage: " + v);
+            }
+            max = Math.max(max, v);
+        }
+        final int[] counts = new int[max + 1];
+        for (int v : values) {
+            counts[v]++;
+        }
+        final int[] sorted = new int[values.length];
+        int pos = 0;
+        for (int v = 0; v <= max; v++) {
+            for (int c = counts[v]; c > 0; c--) {
+                sorted[pos++] = v;
+            }
+        }
+        return sorted;
     }
 
-    private static TLongSet getCharges(String name) throws IOException {
-        final TLongSet charges;
+    private static int[] getCharges(String name) throws IOException {
         try (
                 final InputStream stream = Day8.class.getResourceAsStream(name);
                 final BufferedReader reader = new BufferedReader(new InputStreamReader(stream))
         ) {
-            charges = new TLongHashSet(reader.lines().mapToLong(Long::parseLong).toArray());
+            return reader.lines().mapToInt(Integer::parseInt).toArray();
         }
-        return charges;
     }
 }
@@ -4,7 +4,12 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * --- Day 11: Seating System ---
@@ -220,41 +225,82 @@ public class Day11 {
     private static final int SEAT_MASK = 0b11;
 
     public static void main(String[] args) throws IOException {
-//        part1();
+        part1();
         part2();
+//        benchmark();
     }
 
     private static void part1() throws IOException {
         final int[][] map = readMap("/year2020/day11.txt");
 
-        int iterations = 0;
-        while (playLife(map)) {
-            iterations++;
-        }
-
-        int occupied = Arrays.stream(map).mapToInt(row -> (int) Arrays.stream(row).filter(seat -> seat == BUSY_SEAT).count()).sum();
+        final BitSeatingEngine engine = new BitSeatingEngine(map);
+        final int iterations = engine.run();
 
-        System.out.println("Occupied: " + occupied);
+        System.out.println("Occupied: " + engine.countOccupied());
         System.out.println("Iterations: " + iterations);
     }
 
     private static void part2() throws IOException {
         final int[][] map = readMap("/year2020/day11.txt");
 
-        int iterations = 0;
-        do {
-            iterations++;
-//            System.out.println("--------------------------------");
-//            System.out.println("Iteration #" + iterations);
-//            printMap(map);
-        } while (playSeatsLife(map));
-
-        int occupied = Arrays.stream(map).mapToInt(row -> (int) Arrays.stream(row).filter(seat -> seat == BUSY_SEAT).count()).sum();
+        final SeatingSimulator simulator = new SeatingSimulator(map, 5);
+        final int iterations = simulator.run();
 
-        System.out.println("Occupied: " + occupied);
+        System.out.println("Occupied: " + simulator.countOccupied());
         System.out.println("Iterations: " + iterations);
     }
 
+    /**
+     * Shows how stepping scales with threads on a large generated layout. Random layouts don't always converge
+     * under the adjacent seats rule so a fixed amount of rounds is played.
+     */
+    private static void benchmark() {
+        final int size = 4000;
+        final int rounds = 50;
+        final Random random = new Random(42);
+        final int[][] map = new int[size][size];
+        for (int[] row : map) {
+            for (int c = 0; c < size; c++) {
+                row[c] = random.nextInt(10) == 0 ? EMPTY_SPACE : EMPTY_SEAT;
+            }
+        }
+        final BitSeatingEngine engine = new BitSeatingEngine(map);
+        final SeatingSimulator simulator = new SeatingSimulator(map, 5);
+
+        final int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads << 1, processors)) {
+            final ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                final int bands = threads * 4;
+
+                long start = System.nanoTime();
+                for (int i = 0; i < rounds; i++) {
+                    engine.step(pool, bands);
+                }
+                final long adjacentTime = (System.nanoTime() - start) / 1_000_000;
+
+                start = System.nanoTime();
+                for (int i = 0; i < rounds; i++) {
+                    simulator.step(pool, bands);
+                }
+                final long visibleTime = (System.nanoTime() - start) / 1_000_000;
+
+                System.out.printf(
+                        "Threads: %2d. %d rounds of adjacent rule in %d ms, of visibility rule in %d ms%n",
+                        threads,
+                        rounds,
+                        adjacentTime,
+                        visibleTime
+                );
+            } finally {
+                pool.shutdown();
+            }
+            if (threads == processors) {
+                break;
+            }
+        }
+    }
+
     private static void printMap(int[][] map) {
         for (int[] row : map) {
             for (int seat : row) {
@@ -270,128 +316,365 @@ public class Day11 {
         }
     }
 
-    private static boolean playLife(int[][] map) {
-        boolean changed = false;
-        for (int r = 0; r < map.length; r++) {
-            int[] row = map[r];
-            boolean topEdge = r == 0;
-            boolean bottomEdge = r == map.length - 1;
-            for (int c = 0; c < row.length; c++) {
-                boolean leftEdge = c == 0;
-                boolean rightEdge = c == row.length - 1;
-
-                int neighbourhoods = 0;
-                if (!leftEdge) {
-                    if (!topEdge) {
-                        neighbourhoods += map[r - 1][c - 1] & 0x1;
+    /**
+     * Steps the range {@code [0, size)} split into bands on the pool. Returning from the method is a barrier: all
+     * bands are done. Every band reports its changes into its own slot so the flags are collected without contention.
+     *
+     * @return true if any band has changes
+     */
+    private static boolean stepInBands(ForkJoinPool pool, int size, int bands, BandStep step) {
+        final boolean[] changed = new boolean[bands];
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>(bands);
+        for (int b = 0; b < bands; b++) {
+            final int band = b;
+            final int from = (int) ((long) size * b / bands);
+            final int to = (int) ((long) size * (b + 1) / bands);
+            tasks.add(ForkJoinTask.adapt(() -> changed[band] = step.step(from, to)));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+
+        boolean result = false;
+        for (boolean c : changed) {
+            result |= c;
+        }
+        return result;
+    }
+
+    @FunctionalInterface
+    private interface BandStep {
+        /**
+         * Calculates the next state of the elements {@code [from, to)}
+         *
+         * @return true if any element is changed
+         */
+        boolean step(int from, int to);
+    }
+
+    /**
+     * Seating simulation over visible neighbours. Each seat's visible seats are found once and stored in CSR form:
+     * neighbours of seat {@code s} are at {@code [offsets[s], offsets[s + 1])}. Only seats next to the seats changed
+     * on the previous round are re-evaluated.
+     */
+    private static final class SeatingSimulator {
+        private static final int[][] DIRECTIONS = {{-1, -1}, {-1, 0}, {-1, 1}, {0, -1}, {0, 1}, {1, -1}, {1, 0}, {1, 1}};
+
+        private final int tolerance;
+        private final int[] offsets;
+        private final int[] neighbours;
+        private boolean[] occupied;
+        private boolean[] nextOccupied;
+
+        public SeatingSimulator(int[][] map, int tolerance) {
+            this.tolerance = tolerance;
+
+            final int[][] seatIds = new int[map.length][];
+            int seats = 0;
+            for (int r = 0; r < map.length; r++) {
+                seatIds[r] = new int[map[r].length];
+                for (int c = 0; c < map[r].length; c++) {
+                    seatIds[r][c] = (map[r][c] & SEAT_MASK) == EMPTY_SPACE ? -1 : seats++;
+                }
+            }
+
+            occupied = new boolean[seats];
+            nextOccupied = new boolean[seats];
+            offsets = new int[seats + 1];
+            final int[] visible = new int[seats * DIRECTIONS.length];
+            int edges = 0;
+            for (int r = 0; r < map.length; r++) {
+                for (int c = 0; c < map[r].length; c++) {
+                    final int seat = seatIds[r][c];
+                    if (seat < 0) {
+                        continue;
                     }
-                    neighbourhoods += map[r][c - 1] & 0x1;
-                    if (!bottomEdge) {
-                        neighbourhoods += map[r + 1][c - 1] & 0x1;
+                    occupied[seat] = (map[r][c] & SEAT_MASK) == BUSY_SEAT;
+                    for (int[] d : DIRECTIONS) {
+                        final int neighbour = lookForSeat(seatIds, r, c, d[0], d[1]);
+                        if (neighbour >= 0) {
+                            visible[edges++] = neighbour;
+                        }
                     }
+                    offsets[seat + 1] = edges;
                 }
-                if (!topEdge) {
-                    neighbourhoods += map[r - 1][c] & 0x1;
+            }
+            neighbours = Arrays.copyOf(visible, edges);
+            System.arraycopy(occupied, 0, nextOccupied, 0, seats);
+        }
+
+        private static int lookForSeat(int[][] seatIds, int r, int c, int dx, int dy) {
+            while (true) {
+                r += dx;
+                c += dy;
+                if (r < 0 || c < 0 || r >= seatIds.length || c >= seatIds[r].length) {
+                    return -1;
                 }
-                if (!bottomEdge) {
-                    neighbourhoods += map[r + 1][c] & 0x1;
+                if (seatIds[r][c] >= 0) {
+                    return seatIds[r][c];
                 }
-                if (!rightEdge) {
-                    if (!topEdge) {
-                        neighbourhoods += map[r - 1][c + 1] & 0x1;
+            }
+        }
+
+        /**
+         * Plays rounds until the seating is stable.
+         *
+         * @return amount of played rounds including the last one without changes
+         */
+        public int run() {
+            final int seats = occupied.length;
+            int[] active = new int[seats];
+            int[] nextActive = new int[seats];
+            final int[] changed = new int[seats];
+            // Round number the seat was last queued for re-evaluation on
+            final int[] queuedOn = new int[seats];
+            int activeSize = seats;
+            for (int s = 0; s < seats; s++) {
+                active[s] = s;
+            }
+
+            int rounds = 0;
+            while (true) {
+                rounds++;
+                int changedSize = 0;
+                for (int i = 0; i < activeSize; i++) {
+                    final int seat = active[i];
+                    int busy = 0;
+                    for (int e = offsets[seat]; e < offsets[seat + 1]; e++) {
+                        if (occupied[neighbours[e]]) {
+                            busy++;
+                        }
                     }
-                    neighbourhoods += map[r][c + 1] & 0x1;
-                    if (!bottomEdge) {
-                        neighbourhoods += map[r + 1][c + 1] & 0x1;
+                    final boolean newState = occupied[seat] ? busy < tolerance : busy == 0;
+                    if (newState != occupied[seat]) {
+                        nextOccupied[seat] = newState;
+                        changed[changedSize++] = seat;
                     }
                 }
+                if (changedSize == 0) {
+                    return rounds;
+                }
 
-                map[r][c] |= neighbourhoods << 2;
+                int nextActiveSize = 0;
+                for (int i = 0; i < changedSize; i++) {
+                    final int seat = changed[i];
+                    occupied[seat] = nextOccupied[seat];
+                    if (queuedOn[seat] != rounds) {
+                        queuedOn[seat] = rounds;
+                        nextActive[nextActiveSize++] = seat;
+                    }
+                    for (int e = offsets[seat]; e < offsets[seat + 1]; e++) {
+                        final int neighbour = neighbours[e];
+                        if (queuedOn[neighbour] != rounds) {
+                            queuedOn[neighbour] = rounds;
+                            nextActive[nextActiveSize++] = neighbour;
+                        }
+                    }
+                }
+
+                final int[] tmp = active;
+                active = nextActive;
+                nextActive = tmp;
+                activeSize = nextActiveSize;
             }
         }
-        for (int[] row : map) {
-            for (int i = 0, rowLength = row.length; i < rowLength; i++) {
-                int seat = row[i];
-                int currentState = seat & SEAT_MASK;
-                int neighbourhoods = seat >> 2;
-                final int newState;
-                if (currentState == EMPTY_SEAT && neighbourhoods == 0) {
-                    newState = BUSY_SEAT;
-                } else if (currentState == BUSY_SEAT && neighbourhoods >= 4) {
-                    newState = EMPTY_SEAT;
-                } else {
-                    newState = currentState;
+
+        /**
+         * Plays rounds until the seating is stable evaluating every seat on each round. Seats are split into bands
+         * (seats are numbered row by row so a band is a set of whole rows) which are evaluated on the pool.
+         *
+         * @return amount of played rounds including the last one without changes
+         */
+        public int run(ForkJoinPool pool, int bands) {
+            int rounds = 1;
+            while (step(pool, bands)) {
+                rounds++;
+            }
+            return rounds;
+        }
+
+        private boolean step(ForkJoinPool pool, int bands) {
+            final boolean changed = stepInBands(pool, occupied.length, bands, this::stepSeats);
+            final boolean[] tmp = occupied;
+            occupied = nextOccupied;
+            nextOccupied = tmp;
+            return changed;
+        }
+
+        private boolean stepSeats(int from, int to) {
+            boolean changed = false;
+            for (int seat = from; seat < to; seat++) {
+                int busy = 0;
+                for (int e = offsets[seat]; e < offsets[seat + 1]; e++) {
+                    if (occupied[neighbours[e]]) {
+                        busy++;
+                    }
                 }
+                final boolean newState = occupied[seat] ? busy < tolerance : busy == 0;
+                nextOccupied[seat] = newState;
+                changed |= newState != occupied[seat];
+            }
+            return changed;
+        }
 
-                row[i] = newState;
-                changed |= currentState != newState;
+        public int countOccupied() {
+            int amount = 0;
+            for (boolean o : occupied) {
+                if (o) {
+                    amount++;
+                }
             }
+            return amount;
         }
-        return changed;
     }
 
-    private static int lookForNeighbourhood(int[][] map, int r, int c, int dx, int dy) {
-        int rIdx = r;
-        int cIdx = c;
-        while (true) {
-            rIdx += dx;
-            cIdx += dy;
-            if (cIdx < 0 || rIdx < 0 || rIdx >= map.length) {
-                return 0;
+    /**
+     * Adjacent seats rule simulation over bit rows: seats and occupied seats are kept as {@code long[]} masks and
+     * occupied neighbours are counted with bit-sliced adders, so 64 seats are updated by a few word operations.
+     */
+    private static final class BitSeatingEngine {
+        private final int words;
+        private final long[][] seats;
+        private long[][] occupied;
+        private long[][] nextOccupied;
+
+        public BitSeatingEngine(int[][] map) {
+            int width = 0;
+            for (int[] row : map) {
+                width = Math.max(width, row.length);
+            }
+            words = (width + 63) >> 6;
+            // Extra empty rows above and below the map save bounds checks
+            seats = new long[map.length + 2][words];
+            occupied = new long[map.length + 2][words];
+            nextOccupied = new long[map.length + 2][words];
+            for (int r = 0; r < map.length; r++) {
+                for (int c = 0; c < map[r].length; c++) {
+                    final int seat = map[r][c] & SEAT_MASK;
+                    if (seat != EMPTY_SPACE) {
+                        seats[r + 1][c >> 6] |= 1L << c;
+                    }
+                    if (seat == BUSY_SEAT) {
+                        occupied[r + 1][c >> 6] |= 1L << c;
+                    }
+                }
             }
+        }
 
-            int[] row = map[rIdx];
-            if (cIdx >= row.length) {
-                return 0;
+        /**
+         * Plays rounds until the seating is stable.
+         *
+         * @return amount of rounds with changes
+         */
+        public int run() {
+            int iterations = 0;
+            while (step()) {
+                iterations++;
             }
+            return iterations;
+        }
 
-            int seat = row[cIdx] & SEAT_MASK;
-            if (seat == BUSY_SEAT) {
-                return 1;
-            } else if (seat == EMPTY_SEAT) {
-                return 0;
+        /**
+         * Plays rounds until the seating is stable. Every round the map is split into horizontal bands which are
+         * processed on the pool.
+         *
+         * @return amount of rounds with changes
+         */
+        public int run(ForkJoinPool pool, int bands) {
+            int iterations = 0;
+            while (step(pool, bands)) {
+                iterations++;
             }
+            return iterations;
         }
-    }
 
-    private static boolean playSeatsLife(int[][] map) {
-        boolean changed = false;
-        for (int r = 0; r < map.length; r++) {
-            int[] row = map[r];
-            for (int c = 0; c < row.length; c++) {
-                int neighbourhoods = 0;
-
-                neighbourhoods += lookForNeighbourhood(map, r, c, -1, -1);
-                neighbourhoods += lookForNeighbourhood(map, r, c, 0, -1);
-                neighbourhoods += lookForNeighbourhood(map, r, c, +1, -1);
-                neighbourhoods += lookForNeighbourhood(map, r, c, -1, 0);
-                neighbourhoods += lookForNeighbourhood(map, r, c, +1, 0);
-                neighbourhoods += lookForNeighbourhood(map, r, c, -1, +1);
-                neighbourhoods += lookForNeighbourhood(map, r, c, 0, +1);
-                neighbourhoods += lookForNeighbourhood(map, r, c, +1, +1);
-
-                map[r][c] |= neighbourhoods << 2;
+        private boolean step() {
+            return swap(stepRows(1, seats.length - 1));
+        }
+
+        private boolean step(ForkJoinPool pool, int bands) {
+            // Row 0 is a padding row so bands are shifted by one
+            return swap(stepInBands(pool, seats.length - 2, bands, (from, to) -> stepRows(from + 1, to + 1)));
+        }
+
+        private boolean stepRows(int from, int to) {
+            boolean changed = false;
+            for (int r = from; r < to; r++) {
+                changed |= stepRow(r);
             }
+            return changed;
         }
-        for (int[] row : map) {
-            for (int i = 0, rowLength = row.length; i < rowLength; i++) {
-                int seat = row[i];
-                int currentState = seat & SEAT_MASK;
-                int neighbourhoods = seat >> 2;
-                final int newState;
-                if (currentState == EMPTY_SEAT && neighbourhoods == 0) {
-                    newState = BUSY_SEAT;
-                } else if (currentState == BUSY_SEAT && neighbourhoods >= 5) {
-                    newState = EMPTY_SEAT;
-                } else {
-                    newState = currentState;
-                }
 
-                row[i] = newState;
-                changed |= currentState != newState;
+        private boolean swap(boolean changed) {
+            final long[][] tmp = occupied;
+            occupied = nextOccupied;
+            nextOccupied = tmp;
+            return changed;
+        }
+
+        private boolean stepRow(int r) {
+            final long[] above = occupied[r - 1];
+            final long[] current = occupied[r];
+            final long[] below = occupied[r + 1];
+            final long[] seatRow = seats[r];
+            final long[] target = nextOccupied[r];
+
+            boolean changed = false;
+            for (int w = 0; w < words; w++) {
+                final long n0 = left(above, w);
+                final long n1 = above[w];
+                final long n2 = right(above, w);
+                final long n3 = left(current, w);
+                final long n4 = right(current, w);
+                final long n5 = left(below, w);
+                final long n6 = below[w];
+                final long n7 = right(below, w);
+
+                // Full adders: amount of neighbours = ones + 2 * (k0 + k1 + k2 + k3)
+                final long s0 = n0 ^ n1 ^ n2;
+                final long k0 = majority(n0, n1, n2);
+                final long s1 = n3 ^ n4 ^ n5;
+                final long k1 = majority(n3, n4, n5);
+                final long s2 = n6 ^ n7;
+                final long k2 = n6 & n7;
+                final long k3 = majority(s0, s1, s2);
+                // 4 or more neighbours means at least two of carries are set
+                final long crowded = (k0 & (k1 | k2 | k3)) | (k1 & (k2 | k3)) | (k2 & k3);
+                final long any = n0 | n1 | n2 | n3 | n4 | n5 | n6 | n7;
+
+                final long busy = current[w];
+                final long next = (busy & ~crowded) | (seatRow[w] & ~busy & ~any);
+                target[w] = next;
+                changed |= next != busy;
+            }
+            return changed;
+        }
+
+        private static long majority(long a, long b, long c) {
+            return (a & b) | (c & (a ^ b));
+        }
+
+        /**
+         * @return word of the row where bit {@code i} is the state of the cell {@code i - 1}
+         */
+        private long left(long[] row, int w) {
+            return (row[w] << 1) | (w > 0 ? row[w - 1] >>> 63 : 0);
+        }
+
+        /**
+         * @return word of the row where bit {@code i} is the state of the cell {@code i + 1}
+         */
+        private long right(long[] row, int w) {
+            return (row[w] >>> 1) | (w + 1 < words ? row[w + 1] << 63 : 0);
+        }
+
+        public int countOccupied() {
+            int amount = 0;
+            for (long[] row : occupied) {
+                for (long word : row) {
+                    amount += Long.bitCount(word);
+                }
             }
+            return amount;
         }
-        return changed;
     }
 
     private static int[][] readMap(String name) throws IOException {
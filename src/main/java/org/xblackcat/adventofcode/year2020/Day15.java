@@ -1,9 +1,19 @@
 package org.xblackcat.adventofcode.year2020;
 
-import gnu.trove.map.TLongObjectMap;
-import gnu.trove.map.hash.TLongObjectHashMap;
-
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * --- Day 15: Rambunctious Recitation ---
@@ -56,6 +66,16 @@ import java.util.Arrays;
  * Given your starting numbers, what will be the 30000000th number spoken?
  */
 public class Day15 {
+    /**
+     * Tables bigger than the limit (in entries) are kept in a memory-mapped file instead of the heap.
+     */
+    private static final long HEAP_TABLE_LIMIT = 1 << 27;
+
+    /**
+     * Games with tables bigger than the limit (in entries) are counted against the live tables budget of {@link #playGames}.
+     */
+    private static final long LARGE_TABLE_LIMIT = 1 << 20;
+
     public static void main(String[] args) {
         part1();
         part2();
@@ -73,14 +93,17 @@ public class Day15 {
     }
 
     private static void part2() {
-        doGame(30000000, 0, 3, 6);
-        doGame(30000000, 1, 3, 2);
-        doGame(30000000, 2, 1, 3);
-        doGame(30000000, 1, 2, 3);
-        doGame(30000000, 2, 3, 1);
-        doGame(30000000, 3, 2, 1);
-        doGame(30000000, 3, 1, 2);
-        doGame(30000000, 15, 5, 1, 4, 7, 0);
+        doGames(
+                30000000,
+                new long[]{0, 3, 6},
+                new long[]{1, 3, 2},
+                new long[]{2, 1, 3},
+                new long[]{1, 2, 3},
+                new long[]{2, 3, 1},
+                new long[]{3, 2, 1},
+                new long[]{3, 1, 2},
+                new long[]{15, 5, 1, 4, 7, 0}
+        );
     }
 
     private static void doGame(long rounds, long... startNumbers) {
@@ -88,86 +111,188 @@ public class Day15 {
         System.out.println("Input values: " + Arrays.toString(startNumbers) + ". " + rounds + "th value is " + value);
     }
 
-    private static long playGame(long rounds, long... startNumbers) {
-        TLongObjectMap<LongBuf> playField = new TLongObjectHashMap<>();
+    private static void doGames(long rounds, long[]... startSequences) {
+        final long[] values = playGames(rounds, Runtime.getRuntime().availableProcessors(), 4, startSequences);
+        for (int i = 0; i < startSequences.length; i++) {
+            System.out.println("Input values: " + Arrays.toString(startSequences[i]) + ". " + rounds + "th value is " + values[i]);
+        }
+    }
 
-        for (int i = 0, startNumbersLength = startNumbers.length; i < startNumbersLength; i++) {
-            long n = startNumbers[i];
-            final LongBuf buf = new LongBuf(i + 1);
-            playField.put(n, buf);
+    /**
+     * Plays a game for every start sequence on a fork-join pool.
+     *
+     * @param rounds          amount of rounds to play in every game
+     * @param parallelism     amount of worker threads
+     * @param maxLargeTables  how many games with large tables could be played at once
+     * @param startSequences  start numbers of the games
+     * @return last spoken number of every game in order of start sequences
+     */
+    private static long[] playGames(long rounds, int parallelism, int maxLargeTables, long[]... startSequences) {
+        final Semaphore largeTables = new Semaphore(maxLargeTables);
+        final List<ForkJoinTask<Long>> games = Arrays.stream(startSequences)
+                .map(startNumbers -> ForkJoinTask.adapt(() -> playGame(largeTables, rounds, startNumbers)))
+                .collect(Collectors.toList());
+
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> ForkJoinTask.invokeAll(games)).join();
+        } finally {
+            pool.shutdown();
         }
+        return IntStream.range(0, games.size()).mapToLong(i -> games.get(i).join()).toArray();
+    }
 
-        long lastNumber = startNumbers[startNumbers.length - 1];
+    private static long playGame(Semaphore largeTables, long rounds, long... startNumbers) {
+        final long tableSize = tableSize(rounds, startNumbers);
+        if (tableSize <= LARGE_TABLE_LIMIT) {
+            return playGameWithTable(tableSize, rounds, startNumbers);
+        }
+        largeTables.acquireUninterruptibly();
+        try {
+            return playGameWithTable(tableSize, rounds, startNumbers);
+        } finally {
+            largeTables.release();
+        }
+    }
 
-        for (long round = startNumbers.length + 1; round <= rounds; round++) {
-            if (playField.containsKey(lastNumber)) {
-                LongBuf buf = playField.get(lastNumber);
-                if (buf.isFilled()) {
-                    lastNumber = buf.getDiff();
-                } else {
-                    lastNumber = 0;
-                }
-            } else {
-                lastNumber = 0;
-            }
+    private static long playGame(long rounds, long... startNumbers) {
+        return playGameWithTable(tableSize(rounds, startNumbers), rounds, startNumbers);
+    }
+
+    private static long playGameWithTable(long tableSize, long rounds, long... startNumbers) {
+        try (SpokenTable table = tableSize > HEAP_TABLE_LIMIT ? new MappedSpokenTable(tableSize) : new HeapSpokenTable((int) tableSize)) {
+            return playGame(table, (int) rounds, startNumbers);
+        }
+    }
 
-            final LongBuf curBuf = playField.get(lastNumber);
-            if (curBuf == null) {
-                playField.put(lastNumber, new LongBuf(round));
-            } else {
-                curBuf.add(round);
+    /**
+     * @return amount of entries in the spoken table: it is indexed by the start numbers and the turns differences
+     */
+    private static long tableSize(long rounds, long... startNumbers) {
+        if (rounds > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many rounds: " + rounds);
+        }
+        long tableSize = rounds;
+        for (long n : startNumbers) {
+            if (n < 0 || n >= Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Unsupported start number: " + n);
             }
+            tableSize = Math.max(tableSize, n + 1);
+        }
+        return tableSize;
+    }
+
+    /**
+     * Every number spoken after the start numbers is a turns difference so it is always less than the rounds amount:
+     * the table only has to be indexed by number and store the turn it was spoken last time.
+     */
+    private static long playGame(SpokenTable table, int rounds, long... startNumbers) {
+        for (int i = 0; i < startNumbers.length - 1; i++) {
+            table.getAndSet((int) startNumbers[i], i + 1);
+        }
+
+        int lastNumber = (int) startNumbers[startNumbers.length - 1];
+        for (int round = startNumbers.length; round < rounds; round++) {
+            final int lastSpoken = table.getAndSet(lastNumber, round);
+            lastNumber = lastSpoken == 0 ? 0 : round - lastSpoken;
         }
         return lastNumber;
     }
 
-    private static class LongBuf {
-        private final long[] buf = new long[2];
-        private int size = 0;
+    private interface SpokenTable extends AutoCloseable {
+        /**
+         * Stores the turn the number was spoken.
+         *
+         * @return turn the number was spoken previous time or 0 if the number is spoken the first time.
+         */
+        int getAndSet(int number, int turn);
+
+        @Override
+        void close();
+    }
+
+    private static class HeapSpokenTable implements SpokenTable {
+        private final int[] turns;
 
-        public LongBuf(long firstValue) {
-            buf[0] = firstValue;
-            size = 1;
+        public HeapSpokenTable(int size) {
+            turns = new int[size];
+        }
+
+        @Override
+        public int getAndSet(int number, int turn) {
+            final int last = turns[number];
+            turns[number] = turn;
+            return last;
         }
 
-        public LongBuf() {
+        @Override
+        public void close() {
         }
+    }
 
-        public boolean add(long v) {
-            if (size == 0) {
-                buf[0] = v;
-                size = 1;
-            } else {
-                buf[1] = buf[0];
-                buf[0] = v;
+    private static class MappedSpokenTable implements SpokenTable {
+        private static final int CHUNK_BITS = 28;
+        private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
 
-                if (size == 2) {
-                    return true;
-                }
-                size = 2;
+        private final Path file;
+        private final IntBuffer[] chunks;
+
+        public MappedSpokenTable(long size) {
+            try {
+                file = Files.createTempFile("day15-", ".bin");
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to create spoken numbers table", e);
+            }
+            try {
+                chunks = map(file, size);
+            } catch (IOException e) {
+                delete(file, e);
+                throw new UncheckedIOException("Failed to map spoken numbers table", e);
+            } catch (RuntimeException | Error e) {
+                delete(file, e);
+                throw e;
             }
-            return false;
         }
 
-        public long getDiff() {
-            if (size < 2) {
-                throw new RuntimeException("Oh no...");
+        private static IntBuffer[] map(Path file, long size) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                final IntBuffer[] chunks = new IntBuffer[(int) ((size + CHUNK_MASK) >> CHUNK_BITS)];
+                for (int i = 0; i < chunks.length; i++) {
+                    final long offset = (long) i << CHUNK_BITS;
+                    final long chunkSize = Math.min(size - offset, 1L << CHUNK_BITS);
+                    chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, offset * Integer.BYTES, chunkSize * Integer.BYTES).asIntBuffer();
+                }
+                return chunks;
             }
+        }
 
-            return buf[0] - buf[1];
+        /**
+         * Removes the table file after a failed mapping. A failure to remove it is attached to the mapping failure.
+         */
+        private static void delete(Path file, Throwable cause) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                cause.addSuppressed(e);
+            }
         }
 
-        public boolean isFilled() {
-            return size == 2;
+        @Override
+        public int getAndSet(int number, int turn) {
+            final IntBuffer chunk = chunks[number >>> CHUNK_BITS];
+            final int idx = number & CHUNK_MASK;
+            final int last = chunk.get(idx);
+            chunk.put(idx, turn);
+            return last;
         }
 
         @Override
-        public String toString() {
-            return switch (size) {
-                case 0 -> "[]";
-                case 1 -> "[" + buf[0] + "]";
-                default -> Arrays.toString(buf);
-            };
+        public void close() {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to remove spoken numbers table", e);
+            }
         }
     }
 }
@@ -1,5 +1,10 @@
 package org.xblackcat.adventofcode.year2020;
 
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
@@ -405,264 +410,381 @@ public class Day17 {
     }
 
     private static void part1() throws IOException {
-        int iterations = 6;
-        final int[][] slice = readMap("/year2020/day17.txt");
-
-        final int[][][] map = expand3D(slice, iterations);
-
-        for (int i = 0; i < iterations; i++) {
-            playLife3D(map);
-        }
-
-        int occupied = Arrays.stream(map)
-                .mapToInt(s ->
-                                  Arrays.stream(s)
-                                          .mapToInt(r ->
-                                                            (int) Arrays.stream(r)
-                                                                    .filter(seat -> (seat & 1) == 1)
-                                                                    .count()
-                                          ).sum()
-                ).sum();
-
-        System.out.println("Occupied: " + occupied);
-        System.out.println("Iterations: " + iterations);
+        simulate(3, 6);
     }
 
     private static void part2() throws IOException {
-        int iterations = 6;
-        final int[][] slice = readMap("/year2020/day17.txt");
+        simulate(4, 6);
+    }
 
-        final int[][][][] space4D = expand4D(slice, iterations);
+    /**
+     * Runs the dense engine and checks it against the sparse engine in both full and folded modes.
+     */
+    private static void simulate(int dimensions, int iterations) throws IOException {
+        final int[][] slice = readMap("/year2020/day17.txt");
 
+        final DenseConway dense = new DenseConway(dimensions, slice, iterations);
+        final SparseConway space = new SparseConway(dimensions, slice, false);
+        final SparseConway folded = new SparseConway(dimensions, slice, true);
         for (int i = 0; i < iterations; i++) {
-            playLife4D(space4D);
+            dense.step();
+            space.step();
+            folded.step();
+            if (space.size() != dense.size() || space.size() != folded.size()) {
+                throw new IllegalStateException(
+                        "Simulations differ on iteration " + (i + 1) + ": dense " + dense.size() +
+                                ", sparse " + space.size() + ", folded " + folded.size()
+                );
+            }
         }
 
-        int occupied = Arrays.stream(space4D)
-                .mapToInt(s ->
-                                  Arrays.stream(s)
-                                          .mapToInt(m ->
-                                                            Arrays.stream(m)
-                                                                    .mapToInt(r ->
-                                                                                      (int) Arrays.stream(r)
-                                                                                              .filter(seat -> (seat & 1) == 1)
-                                                                                              .count()
-                                                                    ).sum()
-                                          ).sum()
-                ).sum();
-
-        System.out.println("Occupied: " + occupied);
+        System.out.println("Occupied: " + dense.size());
+        System.out.println("Stored cubes: " + space.storedSize() + ", with folding: " + folded.storedSize());
         System.out.println("Iterations: " + iterations);
     }
 
-    private static int[][][] expand3D(int[][] centerSlice, int iterations) {
-        int width = centerSlice.length;
-        int height = centerSlice[0].length;
-        int depth = 1;
+    /**
+     * Dense Conway cubes in a box which fits the given amount of cycles. Every x-row is stored as {@code long} words
+     * of bits and all other dimensions index the rows. Neighbours are counted with bit-sliced adders: first the sum of
+     * a cell with its left and right neighbours is taken for every row, then such sums of all 3^(d-1) adjacent rows
+     * are added up into a 4-bit saturating counter. So 64 cubes are advanced with a few word operations.
+     */
+    private static final class DenseConway {
+        private final int words;
+        private final int cycles;
+        private final int[] rowDeltas;
+        private final int[] innerRows;
+        private final long[] horizontalLow;
+        private final long[] horizontalHigh;
+        private long[] cells;
+        private long[] nextCells;
+        private int played;
+
+        public DenseConway(int dimensions, int[][] slice, int cycles) {
+            if (dimensions < 2) {
+                throw new IllegalArgumentException("Unsupported amount of dimensions: " + dimensions);
+            }
+            this.cycles = cycles;
+            int width = 0;
+            for (int[] row : slice) {
+                width = Math.max(width, row.length);
+            }
+            words = (width + (cycles << 1) + 63) >> 6;
+
+            // Extents of row dimensions: y, z, w, ... with one padding layer on each side
+            final int[] extents = new int[dimensions - 1];
+            final int[] strides = new int[dimensions - 1];
+            int rows = 1;
+            for (int d = 0; d < extents.length; d++) {
+                extents[d] = (d == 0 ? slice.length : 1) + (cycles << 1) + 2;
+                strides[d] = rows;
+                rows *= extents[d];
+            }
 
-        final int grow = iterations + 1;
-        final int[][][] map3D = new int[depth + (grow << 1)][width + (grow << 1)][height + (grow << 1)];
-        for (int i = 0; i < width; i++) {
-            System.arraycopy(centerSlice[i], 0, map3D[grow][i + grow], grow, height);
+            int neighbourRows = 1;
+            for (int d = 0; d < extents.length; d++) {
+                neighbourRows *= 3;
+            }
+            rowDeltas = new int[neighbourRows];
+            for (int c = 0; c < neighbourRows; c++) {
+                int delta = 0;
+                for (int d = 0, rest = c; d < extents.length; d++, rest /= 3) {
+                    delta += (rest % 3 - 1) * strides[d];
+                }
+                rowDeltas[c] = delta;
+            }
+
+            final int[] inner = new int[rows];
+            int innerSize = 0;
+            for (int r = 0; r < rows; r++) {
+                boolean padding = false;
+                for (int d = 0, rest = r; d < extents.length; d++) {
+                    final int c = rest % extents[d];
+                    rest /= extents[d];
+                    padding |= c == 0 || c == extents[d] - 1;
+                }
+                if (!padding) {
+                    inner[innerSize++] = r;
+                }
+            }
+            innerRows = Arrays.copyOf(inner, innerSize);
+
+            cells = new long[rows * words];
+            nextCells = new long[rows * words];
+            horizontalLow = new long[rows * words];
+            horizontalHigh = new long[rows * words];
+
+            int centerRow = 0;
+            for (int d = 1; d < extents.length; d++) {
+                centerRow += (extents[d] >> 1) * strides[d];
+            }
+            for (int y = 0; y < slice.length; y++) {
+                final int row = centerRow + (y + cycles + 1) * strides[0];
+                for (int x = 0; x < slice[y].length; x++) {
+                    if ((slice[y][x] & 1) == 1) {
+                        final int bit = x + cycles;
+                        cells[row * words + (bit >> 6)] |= 1L << bit;
+                    }
+                }
+            }
         }
 
-        return map3D;
-    }
+        public void step() {
+            if (played++ == cycles) {
+                throw new IllegalStateException("The space is sized for " + cycles + " cycles only");
+            }
+
+            // Padding rows are never active so their sums stay zero
+            for (int r : innerRows) {
+                horizontalSums(r);
+            }
+
+            for (int r : innerRows) {
+                final int base = r * words;
+                for (int w = 0; w < words; w++) {
+                    // Saturating counter of the cell and all its neighbours: c0 + 2 * c1 + 4 * c2, big - 8 or more
+                    long c0 = 0;
+                    long c1 = 0;
+                    long c2 = 0;
+                    long big = 0;
+                    for (int delta : rowDeltas) {
+                        final int idx = base + delta * words + w;
+                        final long low = horizontalLow[idx];
+                        final long high = horizontalHigh[idx];
+
+                        final long carry0 = c0 & low;
+                        c0 ^= low;
+
+                        // Full adder of high and carry0 with weight 2
+                        final long carry1 = (c1 & high) | (carry0 & (c1 ^ high));
+                        c1 ^= high ^ carry0;
+
+                        final long carry2 = c2 & carry1;
+                        c2 ^= carry1;
+                        big |= carry2;
+                    }
 
-    private static int[][][][] expand4D(int[][] centerSlice, int iterations) {
-        int width = centerSlice.length;
-        int height = centerSlice[0].length;
-        int depth = 1;
-        int hyperDepth = 1;
+                    final long self = cells[base + w];
+                    final long three = ~big & ~c2 & c1 & c0;
+                    final long four = ~big & c2 & ~c1 & ~c0;
+                    nextCells[base + w] = three | (self & four);
+                }
+            }
 
-        final int grow = iterations + 1;
-        final int[][][][] map4D = new int[hyperDepth + (grow << 1)][depth + (grow << 1)][width + (grow << 1)][height + (grow << 1)];
-        for (int i = 0; i < width; i++) {
-            System.arraycopy(centerSlice[i], 0, map4D[grow][grow][i + grow], grow, height);
+            final long[] tmp = cells;
+            cells = nextCells;
+            nextCells = tmp;
         }
 
-        return map4D;
+        /**
+         * Calculates sum of every cell with its left and right neighbours as two bit planes.
+         */
+        private void horizontalSums(int r) {
+            final int base = r * words;
+            for (int w = 0; w < words; w++) {
+                final long center = cells[base + w];
+                final long left = (center << 1) | (w > 0 ? cells[base + w - 1] >>> 63 : 0);
+                final long right = (center >>> 1) | (w + 1 < words ? cells[base + w + 1] << 63 : 0);
+                horizontalLow[base + w] = left ^ center ^ right;
+                horizontalHigh[base + w] = (left & center) | (right & (left ^ center));
+            }
+        }
 
+        public long size() {
+            long amount = 0;
+            for (long word : cells) {
+                amount += Long.bitCount(word);
+            }
+            return amount;
+        }
     }
 
-    private static boolean playLife3D(int[][][] map) {
-        boolean changed = false;
-        for (int s = 1; s < map.length - 1; s++) {
-            int[][] slice = map[s];
-            for (int c = 1; c < slice.length - 1; c++) {
-                int[] row = slice[c];
-                for (int r = 1; r < row.length - 1; r++) {
-                    int neighbourhoods = 0;
-                    neighbourhoods += map[s - 1][c - 1][r - 1] & 0x1;
-                    neighbourhoods += map[s - 1][c][r - 1] & 0x1;
-                    neighbourhoods += map[s - 1][c + 1][r - 1] & 0x1;
-                    neighbourhoods += map[s - 1][c - 1][r] & 0x1;
-                    neighbourhoods += map[s - 1][c][r] & 0x1;
-                    neighbourhoods += map[s - 1][c + 1][r] & 0x1;
-                    neighbourhoods += map[s - 1][c - 1][r + 1] & 0x1;
-                    neighbourhoods += map[s - 1][c][r + 1] & 0x1;
-                    neighbourhoods += map[s - 1][c + 1][r + 1] & 0x1;
-
-                    neighbourhoods += map[s][c - 1][r - 1] & 0x1;
-                    neighbourhoods += map[s][c][r - 1] & 0x1;
-                    neighbourhoods += map[s][c + 1][r - 1] & 0x1;
-                    neighbourhoods += map[s][c - 1][r] & 0x1;
-                    neighbourhoods += map[s][c + 1][r] & 0x1;
-                    neighbourhoods += map[s][c - 1][r + 1] & 0x1;
-                    neighbourhoods += map[s][c][r + 1] & 0x1;
-                    neighbourhoods += map[s][c + 1][r + 1] & 0x1;
-
-                    neighbourhoods += map[s + 1][c - 1][r - 1] & 0x1;
-                    neighbourhoods += map[s + 1][c][r - 1] & 0x1;
-                    neighbourhoods += map[s + 1][c + 1][r - 1] & 0x1;
-                    neighbourhoods += map[s + 1][c - 1][r] & 0x1;
-                    neighbourhoods += map[s + 1][c][r] & 0x1;
-                    neighbourhoods += map[s + 1][c + 1][r] & 0x1;
-                    neighbourhoods += map[s + 1][c - 1][r + 1] & 0x1;
-                    neighbourhoods += map[s + 1][c][r + 1] & 0x1;
-                    neighbourhoods += map[s + 1][c + 1][r + 1] & 0x1;
-
-                    map[s][c][r] |= neighbourhoods << 1;
+    /**
+     * Conway cubes in any amount of dimensions. Only active cubes are stored: coordinates are packed into a single
+     * {@code long} (every coordinate takes {@code 64 / dimensions} bits and is stored with a bias) and neighbours are
+     * counted by scattering from active cubes, so memory depends on amount of active cubes only.
+     * <p>
+     * The initial state is a single 2D slice so the space stays mirror-symmetric in every extra dimension. In folded
+     * mode only cubes with non-negative extra coordinates are stored: a cube at 1 in an extra dimension counts twice
+     * for the neighbour at 0 (itself and its mirror at -1), and a stored cube stands for {@code 2^k} cubes where
+     * {@code k} is the amount of its non-zero extra coordinates.
+     */
+    private static final class SparseConway {
+        private final int dimensions;
+        private final int bits;
+        private final long bias;
+        private final long mask;
+        private final boolean folded;
+        private final long[] neighbourDeltas;
+        private final int[][] neighbourShifts;
+        private TLongSet active = new TLongHashSet();
+
+        public SparseConway(int dimensions, int[][] slice, boolean folded) {
+            if (dimensions < 2 || dimensions > 16) {
+                throw new IllegalArgumentException("Unsupported amount of dimensions: " + dimensions);
+            }
+            this.dimensions = dimensions;
+            bits = 64 / dimensions;
+            mask = (1L << bits) - 1;
+            this.folded = folded;
+
+            long bias = 0;
+            for (int d = 0; d < dimensions; d++) {
+                bias |= 1L << (d * bits + bits - 1);
+            }
+            this.bias = bias;
+
+            // All combinations of -1, 0, +1 per dimension except the zero one
+            int combinations = 1;
+            for (int d = 0; d < dimensions; d++) {
+                combinations *= 3;
+            }
+            neighbourDeltas = new long[combinations - 1];
+            neighbourShifts = new int[combinations - 1][dimensions];
+            int idx = 0;
+            for (int c = 0; c < combinations; c++) {
+                final int[] shifts = new int[dimensions];
+                long delta = 0;
+                boolean zero = true;
+                for (int d = 0, rest = c; d < dimensions; d++, rest /= 3) {
+                    final int shift = rest % 3 - 1;
+                    shifts[d] = shift;
+                    delta += (long) shift << (d * bits);
+                    zero &= shift == 0;
+                }
+                if (!zero) {
+                    neighbourShifts[idx] = shifts;
+                    neighbourDeltas[idx++] = delta;
+                }
+            }
+
+            final int[] coordinates = new int[dimensions];
+            for (int y = 0; y < slice.length; y++) {
+                for (int x = 0; x < slice[y].length; x++) {
+                    if ((slice[y][x] & 1) == 1) {
+                        coordinates[0] = x;
+                        coordinates[1] = y;
+                        active.add(pack(coordinates));
+                    }
                 }
             }
         }
-        for (int[][] slice : map) {
-            for (int[] row : slice) {
-                for (int i = 0, rowLength = row.length; i < rowLength; i++) {
-                    int cell = row[i];
-                    boolean currentActive = (cell & 1) == 1;
-                    boolean newActiveState = cell == 5 || cell == 6 || cell == 7;
 
-                    row[i] = newActiveState ? 1 : 0;
-                    changed |= currentActive != newActiveState;
+        public long pack(int... coordinates) {
+            final int limit = 1 << (bits - 1);
+            long key = bias;
+            for (int d = 0; d < dimensions; d++) {
+                if (coordinates[d] < -limit || coordinates[d] >= limit) {
+                    throw new IllegalArgumentException(
+                            "Coordinate " + coordinates[d] + " doesn't fit " + bits + " bits of " + dimensions + "D cube key"
+                    );
                 }
+                key += (long) coordinates[d] << (d * bits);
             }
+            return key;
         }
-        return changed;
-    }
 
-    private static boolean playLife4D(int[][][][] space) {
-        boolean changed = false;
-        for (int h = 1; h < space.length - 1; h++) {
-            final int[][][] map = space[h];
-            for (int s = 1; s < map.length - 1; s++) {
-                int[][] slice = map[s];
-                for (int c = 1; c < slice.length - 1; c++) {
-                    int[] row = slice[c];
-                    for (int r = 1; r < row.length - 1; r++) {
-                        int neighbourhoods = 0;
-                        // Hyper deep lower
-                        neighbourhoods += space[h - 1][s - 1][c - 1][r - 1] & 0x1;
-                        neighbourhoods += space[h - 1][s - 1][c][r - 1] & 0x1;
-                        neighbourhoods += space[h - 1][s - 1][c + 1][r - 1] & 0x1;
-                        neighbourhoods += space[h - 1][s - 1][c - 1][r] & 0x1;
-                        neighbourhoods += space[h - 1][s - 1][c][r] & 0x1;
-                        neighbourhoods += space[h - 1][s - 1][c + 1][r] & 0x1;
-                        neighbourhoods += space[h - 1][s - 1][c - 1][r + 1] & 0x1;
-                        neighbourhoods += space[h - 1][s - 1][c][r + 1] & 0x1;
-                        neighbourhoods += space[h - 1][s - 1][c + 1][r + 1] & 0x1;
-
-                        neighbourhoods += space[h - 1][s][c - 1][r - 1] & 0x1;
-                        neighbourhoods += space[h - 1][s][c][r - 1] & 0x1;
-                        neighbourhoods += space[h - 1][s][c + 1][r - 1] & 0x1;
-                        neighbourhoods += space[h - 1][s][c - 1][r] & 0x1;
-                        neighbourhoods += space[h - 1][s][c][r] & 0x1;
-                        neighbourhoods += space[h - 1][s][c + 1][r] & 0x1;
-                        neighbourhoods += space[h - 1][s][c - 1][r + 1] & 0x1;
-                        neighbourhoods += space[h - 1][s][c][r + 1] & 0x1;
-                        neighbourhoods += space[h - 1][s][c + 1][r + 1] & 0x1;
-
-                        neighbourhoods += space[h - 1][s + 1][c - 1][r - 1] & 0x1;
-                        neighbourhoods += space[h - 1][s + 1][c][r - 1] & 0x1;
-                        neighbourhoods += space[h - 1][s + 1][c + 1][r - 1] & 0x1;
-                        neighbourhoods += space[h - 1][s + 1][c - 1][r] & 0x1;
-                        neighbourhoods += space[h - 1][s + 1][c][r] & 0x1;
-                        neighbourhoods += space[h - 1][s + 1][c + 1][r] & 0x1;
-                        neighbourhoods += space[h - 1][s + 1][c - 1][r + 1] & 0x1;
-                        neighbourhoods += space[h - 1][s + 1][c][r + 1] & 0x1;
-                        neighbourhoods += space[h - 1][s + 1][c + 1][r + 1] & 0x1;
-
-                        // Hyper depp this
-                        neighbourhoods += space[h][s - 1][c - 1][r - 1] & 0x1;
-                        neighbourhoods += space[h][s - 1][c][r - 1] & 0x1;
-                        neighbourhoods += space[h][s - 1][c + 1][r - 1] & 0x1;
-                        neighbourhoods += space[h][s - 1][c - 1][r] & 0x1;
-                        neighbourhoods += space[h][s - 1][c][r] & 0x1;
-                        neighbourhoods += space[h][s - 1][c + 1][r] & 0x1;
-                        neighbourhoods += space[h][s - 1][c - 1][r + 1] & 0x1;
-                        neighbourhoods += space[h][s - 1][c][r + 1] & 0x1;
-                        neighbourhoods += space[h][s - 1][c + 1][r + 1] & 0x1;
-
-                        neighbourhoods += space[h][s][c - 1][r - 1] & 0x1;
-                        neighbourhoods += space[h][s][c][r - 1] & 0x1;
-                        neighbourhoods += space[h][s][c + 1][r - 1] & 0x1;
-                        neighbourhoods += space[h][s][c - 1][r] & 0x1;
-                        neighbourhoods += space[h][s][c + 1][r] & 0x1;
-                        neighbourhoods += space[h][s][c - 1][r + 1] & 0x1;
-                        neighbourhoods += space[h][s][c][r + 1] & 0x1;
-                        neighbourhoods += space[h][s][c + 1][r + 1] & 0x1;
-
-                        neighbourhoods += space[h][s + 1][c - 1][r - 1] & 0x1;
-                        neighbourhoods += space[h][s + 1][c][r - 1] & 0x1;
-                        neighbourhoods += space[h][s + 1][c + 1][r - 1] & 0x1;
-                        neighbourhoods += space[h][s + 1][c - 1][r] & 0x1;
-                        neighbourhoods += space[h][s + 1][c][r] & 0x1;
-                        neighbourhoods += space[h][s + 1][c + 1][r] & 0x1;
-                        neighbourhoods += space[h][s + 1][c - 1][r + 1] & 0x1;
-                        neighbourhoods += space[h][s + 1][c][r + 1] & 0x1;
-                        neighbourhoods += space[h][s + 1][c + 1][r + 1] & 0x1;
-
-                        // Hyper deep upper
-                        neighbourhoods += space[h + 1][s - 1][c - 1][r - 1] & 0x1;
-                        neighbourhoods += space[h + 1][s - 1][c][r - 1] & 0x1;
-                        neighbourhoods += space[h + 1][s - 1][c + 1][r - 1] & 0x1;
-                        neighbourhoods += space[h + 1][s - 1][c - 1][r] & 0x1;
-                        neighbourhoods += space[h + 1][s - 1][c][r] & 0x1;
-                        neighbourhoods += space[h + 1][s - 1][c + 1][r] & 0x1;
-                        neighbourhoods += space[h + 1][s - 1][c - 1][r + 1] & 0x1;
-                        neighbourhoods += space[h + 1][s - 1][c][r + 1] & 0x1;
-                        neighbourhoods += space[h + 1][s - 1][c + 1][r + 1] & 0x1;
-
-                        neighbourhoods += space[h + 1][s][c - 1][r - 1] & 0x1;
-                        neighbourhoods += space[h + 1][s][c][r - 1] & 0x1;
-                        neighbourhoods += space[h + 1][s][c + 1][r - 1] & 0x1;
-                        neighbourhoods += space[h + 1][s][c - 1][r] & 0x1;
-                        neighbourhoods += space[h + 1][s][c][r] & 0x1;
-                        neighbourhoods += space[h + 1][s][c + 1][r] & 0x1;
-                        neighbourhoods += space[h + 1][s][c - 1][r + 1] & 0x1;
-                        neighbourhoods += space[h + 1][s][c][r + 1] & 0x1;
-                        neighbourhoods += space[h + 1][s][c + 1][r + 1] & 0x1;
-
-                        neighbourhoods += space[h + 1][s + 1][c - 1][r - 1] & 0x1;
-                        neighbourhoods += space[h + 1][s + 1][c][r - 1] & 0x1;
-                        neighbourhoods += space[h + 1][s + 1][c + 1][r - 1] & 0x1;
-                        neighbourhoods += space[h + 1][s + 1][c - 1][r] & 0x1;
-                        neighbourhoods += space[h + 1][s + 1][c][r] & 0x1;
-                        neighbourhoods += space[h + 1][s + 1][c + 1][r] & 0x1;
-                        neighbourhoods += space[h + 1][s + 1][c - 1][r + 1] & 0x1;
-                        neighbourhoods += space[h + 1][s + 1][c][r + 1] & 0x1;
-                        neighbourhoods += space[h + 1][s + 1][c + 1][r + 1] & 0x1;
-
-                        space[h][s][c][r] |= neighbourhoods << 1;
-                    }
+        /**
+         * Neighbours of a cube on the edge of the coordinate range would wrap into the adjacent coordinate.
+         */
+        private void checkRange(long cube) {
+            for (int d = 0; d < dimensions; d++) {
+                final long field = (cube >>> (d * bits)) & mask;
+                if (field == 0 || field == mask) {
+                    throw new IllegalStateException(
+                            "Active cubes grow out of " + bits + " bits coordinate range of " + dimensions + "D cube key"
+                    );
                 }
             }
         }
-        for (int[][][] map : space) {
-            for (int[][] slice : map) {
-                for (int[] row : slice) {
-                    for (int i = 0, rowLength = row.length; i < rowLength; i++) {
-                        int cell = row[i];
-                        boolean currentActive = (cell & 1) == 1;
-                        boolean newActiveState = cell == 5 || cell == 6 || cell == 7;
-
-                        row[i] = newActiveState ? 1 : 0;
-                        changed |= currentActive != newActiveState;
+
+        /**
+         * @return coordinate of the packed cube in the dimension
+         */
+        private int coordinate(long cube, int dimension) {
+            return (int) ((cube >>> (dimension * bits)) & mask) - (1 << (bits - 1));
+        }
+
+        public void step() {
+            active.forEach(cube -> {
+                checkRange(cube);
+                return true;
+            });
+
+            final TLongIntMap neighbours = new TLongIntHashMap(active.size() << 3);
+            if (folded) {
+                active.forEach(cube -> {
+                    scatterFolded(cube, neighbours);
+                    return true;
+                });
+            } else {
+                active.forEach(cube -> {
+                    for (long delta : neighbourDeltas) {
+                        neighbours.adjustOrPutValue(cube + delta, 1, 1);
+                    }
+                    return true;
+                });
+            }
+
+            final TLongSet next = new TLongHashSet(active.size() << 1);
+            neighbours.forEachEntry((cube, amount) -> {
+                if (amount == 3 || amount == 2 && active.contains(cube)) {
+                    next.add(cube);
+                }
+                return true;
+            });
+            active = next;
+        }
+
+        private void scatterFolded(long cube, TLongIntMap neighbours) {
+            for (int k = 0; k < neighbourDeltas.length; k++) {
+                final int[] shifts = neighbourShifts[k];
+                int weight = 1;
+                for (int d = 2; d < dimensions; d++) {
+                    final int c = coordinate(cube, d);
+                    if (shifts[d] == -1) {
+                        if (c == 0) {
+                            // The mirror half is not stored
+                            weight = 0;
+                            break;
+                        } else if (c == 1) {
+                            weight <<= 1;
+                        }
                     }
                 }
+                if (weight > 0) {
+                    neighbours.adjustOrPutValue(cube + neighbourDeltas[k], weight, weight);
+                }
+            }
+        }
+
+        /**
+         * @return amount of active cubes in the whole space
+         */
+        public long size() {
+            if (!folded) {
+                return active.size();
             }
+            final long[] total = {0};
+            active.forEach(cube -> {
+                int mirrors = 0;
+                for (int d = 2; d < dimensions; d++) {
+                    if (coordinate(cube, d) != 0) {
+                        mirrors++;
+                    }
+                }
+                total[0] += 1L << mirrors;
+                return true;
+            });
+            return total[0];
+        }
+
+        /**
+         * @return amount of cubes kept in memory
+         */
+        public int storedSize() {
+            return active.size();
         }
-        return changed;
     }
 
     private static int[][] readMap(String name) throws IOException {
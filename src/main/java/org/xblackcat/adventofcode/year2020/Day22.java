@@ -2,6 +2,10 @@ package org.xblackcat.adventofcode.year2020;
 
 import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -9,6 +13,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 /**
  * --- Day 22: Crab Combat ---
@@ -383,19 +388,20 @@ import java.util.List;
  */
 public class Day22 {
     public static void main(String[] args) throws IOException {
-//        part1();
+        part1();
         part2();
+//        benchmark();
     }
 
     private static void part1() throws IOException {
         final TIntList[] decks = readDecks("/year2020/day22.txt");
 
-        TIntList deck1 = decks[0];
-        TIntList deck2 = decks[1];
+        final Deck deck1 = Deck.of(decks[0], decks[0].size() + decks[1].size());
+        final Deck deck2 = Deck.of(decks[1], decks[0].size() + decks[1].size());
 
-        int round = playGame(deck1, deck2);
+        int round = playGame(deck1, deck2, Integer.MAX_VALUE);
 
-        TIntList winner;
+        Deck winner;
         if (deck1.isEmpty()) {
             System.out.println("PLayer 2 wins!");
             winner = deck2;
@@ -403,49 +409,92 @@ public class Day22 {
             System.out.println("PLayer 1 wins!");
             winner = deck1;
         }
-        winner.reverse();
-        int[] array = winner.toArray();
-        int score = 0;
-        for (int i = 0; i < array.length; i++) {
-            int card = array[i];
-            score += (i + 1) * card;
-        }
-        System.out.println("Last round: " + round + ", score = " + score);
+        System.out.println("Last round: " + round + ", score = " + winner.score());
     }
 
     private static void part2() throws IOException {
         final TIntList[] decks = readDecks("/year2020/day22.txt");
 
-        TIntList deck1 = decks[0];
-        TIntList deck2 = decks[1];
-        final RecursiveGame game = new RecursiveGame();
-        game.playGame(deck1, deck2);
-
-        TIntList winner = deck1.isEmpty() ? deck2 : deck1;
-        winner.reverse();
-        int[] array = winner.toArray();
-        int score = 0;
-        for (int i = 0; i < array.length; i++) {
-            int card = array[i];
-            score += (i + 1) * card;
+        final Deck deck1 = Deck.of(decks[0], decks[0].size() + decks[1].size());
+        final Deck deck2 = Deck.of(decks[1], decks[0].size() + decks[1].size());
+        final RecursiveCombat game = new RecursiveCombat();
+        final int winner = game.play(deck1, deck2);
+
+        System.out.println("Winner score = " + (winner == 1 ? deck1 : deck2).score());
+    }
+
+    /**
+     * Compares Combat on ring buffer decks with the list based one on large random decks. Plain Combat could loop
+     * forever so a fixed amount of rounds is played.
+     */
+    private static void benchmark() {
+        final int deckSize = 10_000;
+        final int rounds = 200_000;
+        final Random random = new Random(42);
+        final TIntList cards = new TIntArrayList();
+        for (int i = 1; i <= deckSize * 2; i++) {
+            cards.add(i);
+        }
+        cards.shuffle(random);
+
+        for (int attempt = 0; attempt < 5; attempt++) {
+            final TIntList list1 = new TIntArrayList(cards.subList(0, deckSize));
+            final TIntList list2 = new TIntArrayList(cards.subList(deckSize, deckSize * 2));
+            final Deck deck1 = Deck.of(list1, deckSize * 2);
+            final Deck deck2 = Deck.of(list2, deckSize * 2);
+
+            long start = System.nanoTime();
+            final int listRounds = playListGame(list1, list2, rounds);
+            final long listTime = (System.nanoTime() - start) / 1_000_000;
+
+            start = System.nanoTime();
+            final int deckRounds = playGame(deck1, deck2, rounds);
+            final long deckTime = (System.nanoTime() - start) / 1_000_000;
+
+            if (listRounds != deckRounds || !deck1.toList().equals(list1) || !deck2.toList().equals(list2)) {
+                throw new IllegalStateException("Games diverged");
+            }
+
+            System.out.printf(
+                    "%d rounds with %d cards per deck: list in %d ms, ring buffer in %d ms%n",
+                    deckRounds,
+                    deckSize,
+                    listTime,
+                    deckTime
+            );
+        }
+    }
+
+    private static int playGame(Deck deck1, Deck deck2, int maxRounds) {
+        int round = 0;
+        while (!deck1.isEmpty() && !deck2.isEmpty() && round < maxRounds) {
+            round++;
+            final int card1 = deck1.draw();
+            final int card2 = deck2.draw();
+            if (card1 > card2) {
+                deck1.append(card1);
+                deck1.append(card2);
+            } else if (card1 < card2) {
+                deck2.append(card2);
+                deck2.append(card1);
+            }
         }
-        System.out.println("Winner score = " + score);
+        return round;
     }
 
-    private static int playGame(TIntList deck1, TIntList deck2) {
+    /**
+     * List based Combat. Every draw shifts the whole list so it is kept only as a baseline for the benchmark.
+     */
+    private static int playListGame(TIntList deck1, TIntList deck2, int maxRounds) {
         int round = 0;
-        while (!deck1.isEmpty() && !deck2.isEmpty()) {
+        while (!deck1.isEmpty() && !deck2.isEmpty() && round < maxRounds) {
             round++;
-            System.out.println("--- Round " + round + " ---");
             final int card1 = deck1.removeAt(0);
             final int card2 = deck2.removeAt(0);
-            System.out.println("player 1: " + card1 + ", player 2: " + card2);
             if (card1 > card2) {
-                System.out.println("Player 1 wins!");
                 deck1.add(card1);
                 deck1.add(card2);
             } else if (card1 < card2) {
-                System.out.println("Player 2 wins!");
                 deck2.add(card2);
                 deck2.add(card1);
             }
@@ -481,66 +530,215 @@ public class Day22 {
         return decks.toArray(new TIntList[0]);
     }
 
-    private static class RecursiveGame {
-        private int gameId = 1;
+    /**
+     * Deck of cards in a power-of-two ring buffer: cards are drawn at the head and appended at the tail in constant
+     * time. The deck keeps a rolling hash {@code sum(card[i] * BASE^(size - 1 - i))} where {@code card[0]} is the top
+     * card, so the state of the deck is known without scanning it.
+     */
+    static final class Deck {
+        private static final long BASE = 0x9E3779B97F4A7C15L;
+        /**
+         * Multiplicative inverse of {@code BASE} modulo 2^64 (the base is odd so it exists)
+         */
+        private static final long BASE_INVERSE = inverse(BASE);
 
-        public void playGame(TIntList deck1, TIntList deck2) {
-            playRecursiveGame(deck1, deck2, gameId++);
+        private final int[] cards;
+        private final int mask;
+        /**
+         * Indexes are not wrapped: the size is {@code tail - head} and only array access is masked
+         */
+        private int head;
+        private int tail;
+        private long hash;
+        /**
+         * {@code BASE^size}
+         */
+        private long power = 1;
+
+        Deck(int capacity) {
+            cards = new int[Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1)];
+            mask = cards.length - 1;
         }
 
-        private void playRecursiveGame(TIntList deck1, TIntList deck2, int gameNo) {
-            List<TIntList> player1Rounds = new ArrayList<>();
-            List<TIntList> player2Rounds = new ArrayList<>();
-            int round = 0;
-            while (!deck1.isEmpty() && !deck2.isEmpty()) {
-                if (player1Rounds.contains(deck1) || player2Rounds.contains(deck2)) {
-                    System.out.println("--- Recursive prevent rule! Player 1 wins (Game " + gameNo + ") ---");
+        static Deck of(TIntList cards, int capacity) {
+            final Deck deck = new Deck(capacity);
+            for (int i = 0; i < cards.size(); i++) {
+                deck.append(cards.get(i));
+            }
+            return deck;
+        }
 
-                    deck1.addAll(deck2);
-                    deck2.clear();
-                    continue;
+        int size() {
+            return tail - head;
+        }
+
+        boolean isEmpty() {
+            return tail == head;
+        }
+
+        long hash() {
+            return hash;
+        }
+
+        int draw() {
+            if (isEmpty()) {
+                throw new IllegalStateException("Deck is empty");
+            }
+            final int card = cards[head++ & mask];
+            power *= BASE_INVERSE;
+            hash -= card * power;
+            return card;
+        }
+
+        void append(int card) {
+            if (size() == cards.length) {
+                throw new IllegalStateException("Deck is full");
+            }
+            cards[tail++ & mask] = card;
+            hash = hash * BASE + card;
+            power *= BASE;
+        }
+
+        /**
+         * @return view of the top cards of the deck. The view is valid until the deck is changed.
+         */
+        Prefix prefix(int size) {
+            if (size > size()) {
+                throw new IllegalArgumentException("Only " + size() + " cards in the deck");
+            }
+            return new Prefix(size);
+        }
+
+        long score() {
+            long score = 0;
+            for (int i = head, weight = size(); weight > 0; i++, weight--) {
+                score += (long) weight * cards[i & mask];
+            }
+            return score;
+        }
+
+        TIntList toList() {
+            final TIntList list = new TIntArrayList(size());
+            for (int i = head; i != tail; i++) {
+                list.add(cards[i & mask]);
+            }
+            return list;
+        }
+
+        private static long inverse(long value) {
+            // Newton iterations: every step doubles the amount of correct low bits
+            long inverse = value;
+            for (int i = 0; i < 5; i++) {
+                inverse *= 2 - value * inverse;
+            }
+            return inverse;
+        }
+
+        final class Prefix {
+            private final int size;
+
+            private Prefix(int size) {
+                this.size = size;
+            }
+
+            int size() {
+                return size;
+            }
+
+            int max() {
+                int max = 0;
+                for (int i = head, end = head + size; i != end; i++) {
+                    max = Math.max(max, cards[i & mask]);
+                }
+                return max;
+            }
+
+            /**
+             * @return the same hash as a deck of the cards would have
+             */
+            long hash() {
+                long hash = 0;
+                for (int i = head, end = head + size; i != end; i++) {
+                    hash = hash * BASE + cards[i & mask];
+                }
+                return hash;
+            }
+
+            Deck toDeck(int capacity) {
+                final Deck deck = new Deck(capacity);
+                for (int i = head, end = head + size; i != end; i++) {
+                    deck.append(cards[i & mask]);
                 }
+                return deck;
+            }
+        }
+    }
 
-                player1Rounds.add(new TIntArrayList(deck1));
-                player2Rounds.add(new TIntArrayList(deck2));
-                round++;
-                System.out.println("--- Round " + round + "(Game " + gameNo + ") ---");
-                final int card1 = deck1.removeAt(0);
-                final int card2 = deck2.removeAt(0);
+    /**
+     * Recursive Combat engine. Every seen round is remembered as a 64-bit hash of both decks in a primitive set.
+     * Sub-game winners are cached by their starting state, and a sub-game where player 1 holds the highest card is
+     * won by player 1 without playing: the card can't be lost in any round (it is too big to start a deeper sub-game
+     * and player 2 has no higher card), so the game ends either by the repeat rule or by player 2 running out of cards.
+     * Sub-game decks are only copied when the sub-game has to be played.
+     */
+    static final class RecursiveCombat {
+        private static final long MIX = 0xC2B2AE3D27D4EB4FL;
+        private static final long MIX2 = 0x9E3779B97F4A7C15L;
 
+        /**
+         * Starting state hash -> winner of the sub-game (1 or 2)
+         */
+        private final TLongIntMap winners = new TLongIntHashMap();
+
+        /**
+         * Plays the main game. Decks are updated with the final state.
+         *
+         * @return winner of the game (1 or 2)
+         */
+        public int play(Deck deck1, Deck deck2) {
+            final TLongSet seen = new TLongHashSet();
+            while (!deck1.isEmpty() && !deck2.isEmpty()) {
+                if (!seen.add(state(deck1.hash(), deck1.size(), deck2.hash()))) {
+                    return 1;
+                }
+
+                final int card1 = deck1.draw();
+                final int card2 = deck2.draw();
+                final int winner;
                 if (card1 <= deck1.size() && card2 <= deck2.size()) {
-                    final TIntList rDeck1 = deck1.subList(0, card1);
-                    final TIntList rDeck2 = deck2.subList(0, card2);
-                    final int subGame = gameId++;
-                    playRecursiveGame(rDeck1, rDeck2, subGame);
-                    if (rDeck1.isEmpty()) {
-                        System.out.println("Player 2 wins game #" + subGame);
-                        deck2.add(card2);
-                        deck2.add(card1);
-                    } else {
-                        System.out.println("Player 1 wins game #" + subGame);
-                        deck1.add(card1);
-                        deck1.add(card2);
-                    }
+                    winner = playSubGame(deck1.prefix(card1), deck2.prefix(card2));
                 } else {
-                    System.out.println("player 1: " + card1 + ", player 2: " + card2);
-                    if (card1 > card2) {
-                        System.out.println("Player 1 wins!");
-                        deck1.add(card1);
-                        deck1.add(card2);
-                    } else if (card1 < card2) {
-                        System.out.println("Player 2 wins!");
-                        deck2.add(card2);
-                        deck2.add(card1);
-                    }
+                    winner = card1 > card2 ? 1 : 2;
+                }
+
+                if (winner == 1) {
+                    deck1.append(card1);
+                    deck1.append(card2);
+                } else {
+                    deck2.append(card2);
+                    deck2.append(card1);
                 }
             }
+            return deck1.isEmpty() ? 2 : 1;
+        }
 
-            if (deck1.isEmpty()) {
-                System.out.println("PLayer 2 wins game " + gameNo + "!");
-            } else {
-                System.out.println("PLayer 1 wins game " + gameNo + "!");
+        private int playSubGame(Deck.Prefix deck1, Deck.Prefix deck2) {
+            if (deck1.max() > deck2.max()) {
+                return 1;
             }
+
+            final long start = state(deck1.hash(), deck1.size(), deck2.hash());
+            int winner = winners.get(start);
+            if (winner == 0) {
+                final int capacity = deck1.size() + deck2.size();
+                winner = play(deck1.toDeck(capacity), deck2.toDeck(capacity));
+                winners.put(start, winner);
+            }
+            return winner;
+        }
+
+        private static long state(long hash1, int size1, long hash2) {
+            return (hash1 * MIX + size1) * MIX2 + hash2;
         }
     }
 }
@@ -90,9 +90,11 @@ import java.util.Collection;
  * Determine which two cups will end up immediately clockwise of cup 1. What do you get if you multiply their labels together?
  */
 public class Day23 {
+    private static final int PICK_UP_SIZE = 3;
+
     public static void main(String[] args) {
         part1();
-//        part2();
+        part2();
     }
 
     private static void part1() {
@@ -107,89 +109,89 @@ public class Day23 {
     }
 
     private static String playCrabGame(String text, int moves) {
-        int[] buffer = text.chars().map(c -> c - '0').toArray();
-        playCrabGame(moves, buffer);
-        return toString(buffer);
-
+        int[] next = playCrabGame(text, text.length(), moves, PICK_UP_SIZE);
+        return toString(next);
     }
 
     private static String playMillionCrabGame(String text) {
-        int[] buffer = new int[1_000_000];
-        char[] charArray = text.toCharArray();
-        int i = 0;
-        for (char c : charArray) {
-            buffer[i++] = c - '0';
-        }
+        long timeline = System.currentTimeMillis();
+        int[] next = playCrabGame(text, 1_000_000, 10_000_000, PICK_UP_SIZE);
+        final int a = next[1];
+        final int b = next[a];
+        System.out.println("Played in " + (System.currentTimeMillis() - timeline) + " ms");
+        return String.valueOf((long) a * b);
+    }
 
-        for (; i < buffer.length; i++) {
-            buffer[i] = i + 1;
+    /**
+     * Plays the crab game on a circle of labels {@code 1..cupsAmount}. The circle is stored as a label-indexed
+     * "next cup" array so every move is done by relinking a few cells instead of shifting the whole circle.
+     *
+     * @param text        initial labeling of the first cups
+     * @param cupsAmount  total amount of cups. Cups after the initial labeling are numbered one by one
+     * @param moves       amount of moves to play
+     * @param pickUpSize  amount of cups the crab picks up on each move
+     * @return array where {@code next[label]} is the label of the cup immediately clockwise of the cup {@code label}
+     */
+    static int[] playCrabGame(String text, int cupsAmount, int moves, int pickUpSize) {
+        if (cupsAmount < text.length()) {
+            throw new IllegalArgumentException("Cups amount is less than initial labeling length");
         }
-        playCrabGame(10_000_000, buffer);
-
-        if (buffer[buffer.length - 1] == 1) {
-            return String.valueOf((long) buffer[0] * buffer[1]);
-        } else if (buffer[buffer.length - 2] == 1) {
-            return String.valueOf((long) buffer[0] * buffer[buffer.length - 1]);
+        if (pickUpSize < 1 || pickUpSize >= cupsAmount - 1) {
+            throw new IllegalArgumentException("Invalid pick up size " + pickUpSize + " for " + cupsAmount + " cups");
         }
 
-        for (i = buffer.length - 3; i >= 0; i--) {
-            if (buffer[i] == 1) {
-                return String.valueOf((long) buffer[i + 1] * buffer[i + 2]);
-            }
+        final int[] next = new int[cupsAmount + 1];
+        final int first = text.charAt(0) - '0';
+        int last = first;
+        for (int i = 1; i < text.length(); i++) {
+            int cup = text.charAt(i) - '0';
+            next[last] = cup;
+            last = cup;
         }
-        return "!!!";
-    }
+        for (int cup = text.length() + 1; cup <= cupsAmount; cup++) {
+            next[last] = cup;
+            last = cup;
+        }
+        next[last] = first;
+
+        final int[] pickedUp = new int[pickUpSize];
+        int currentCup = first;
+        for (int i = 0; i < moves; i++) {
+            int lastPicked = currentCup;
+            for (int j = 0; j < pickUpSize; j++) {
+                lastPicked = next[lastPicked];
+                pickedUp[j] = lastPicked;
+            }
 
-    private static void playCrabGame(int moves, int[] buffer) {
-        long timeline = System.currentTimeMillis();
-        for (int i = 1; i <= moves; i++) {
-            int currentCup = buffer[0];
-            int a = buffer[1];
-            int b = buffer[2];
-            int c = buffer[3];
+            int destination = decrement(currentCup, cupsAmount);
+            while (contains(pickedUp, destination)) {
+                destination = decrement(destination, cupsAmount);
+            }
 
-            final int length = buffer.length;
+            next[currentCup] = next[lastPicked];
+            next[lastPicked] = next[destination];
+            next[destination] = pickedUp[0];
 
-            int nextCup = decrement(currentCup, length);
-            while (nextCup == a || nextCup == b || nextCup == c) {
-                nextCup = decrement(nextCup, length);
-            }
-            int j = 4;
-            while (j < length) {
-                if (buffer[j++] == nextCup) {
-                    break;
-                }
-            }
-            System.arraycopy(buffer, 4, buffer, 0, j - 4);
-            buffer[j - 4] = a;
-            buffer[j - 3] = b;
-            buffer[j - 2] = c;
-            if (j < length) {
-                System.arraycopy(buffer, j, buffer, j - 1, length - j);
-            }
-            buffer[length - 1] = currentCup;
-            if ((i & 0xFFFF) == 0) {
-                System.out.println("Move: " + i + " " + (System.currentTimeMillis() - timeline) + " ms");
-            }
+            currentCup = next[currentCup];
         }
+        return next;
     }
 
-    private static String toString(int[] buffer) {
-        StringBuilder tail = new StringBuilder();
-        StringBuilder head = new StringBuilder();
-
-        StringBuilder current = tail;
-        for (int e : buffer) {
-            if (e == 1) {
-                current = head;
-            } else {
-                current.append(e);
+    private static boolean contains(int[] cups, int cup) {
+        for (int c : cups) {
+            if (c == cup) {
+                return true;
             }
         }
+        return false;
+    }
 
-        head.append(tail);
-
-        return head.toString();
+    private static String toString(int[] next) {
+        StringBuilder result = new StringBuilder();
+        for (int cup = next[1]; cup != 1; cup = next[cup]) {
+            result.append(cup);
+        }
+        return result.toString();
     }
 
     private static String toString(Collection<Integer> buffer) {
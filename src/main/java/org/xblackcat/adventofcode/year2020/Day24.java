@@ -1,11 +1,12 @@
 package org.xblackcat.adventofcode.year2020;
 
-import java.io.BufferedReader;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * --- Day 24: Lobby Layout ---
@@ -88,158 +89,154 @@ import java.util.stream.Collectors;
  */
 public class Day24 {
     public static void main(String[] args) throws IOException {
-        Map<Hex, Long> hexes;
-        try (
-                final InputStream stream = Day17.class.getResourceAsStream("/year2020/day24.txt");
-                final BufferedReader reader = new BufferedReader(new InputStreamReader(stream))
-        ) {
-            Direction.Builder db = new Direction.Builder();
-            hexes = reader.lines().map(l -> {
-                final Hex.Builder hb = new Hex.Builder();
-                l.chars().mapToObj(db::consume).filter(Objects::nonNull).forEach(hb::apply);
-                return hb.build();
-            }).collect(Collectors.groupingBy(o -> o, HashMap::new, Collectors.counting()));
+        final HexLife life = new HexLife();
+        try (final InputStream stream = Day17.class.getResourceAsStream("/year2020/day24.txt")) {
+            decode(stream, life);
         }
 
-        final List<Hex> blackTiles = hexes.entrySet().stream()
-                .filter(e -> (e.getValue() & 1) == 1).map(Map.Entry::getKey).collect(Collectors.toList());
-        System.out.println("Black tiles: " + blackTiles.size());
+        System.out.println("Black tiles: " + life.size());
 
         // Part two
 
         int days = 100;
 
-        int minX = Integer.MAX_VALUE;
-        int maxX = Integer.MIN_VALUE;
-        int minY = Integer.MAX_VALUE;
-        int maxY = Integer.MIN_VALUE;
-
-        for (Hex h : blackTiles) {
-            if (h.x > maxX) {
-                maxX = h.x;
-            }
-            if (h.x < minX) {
-                minX = h.x;
-            }
-            if (h.y > maxY) {
-                maxY = h.y;
-            }
-            if (h.y < minY) {
-                minY = h.y;
-            }
-        }
-
-        int padding = 1 + days;
-
-        int playgroundWidth = padding * 2 + maxX - minX;
-        int playgroundHeight = padding * 2 + maxY - minY;
-        int[][] playground = new int[playgroundHeight][playgroundWidth];
-
-        for (Hex h : blackTiles) {
-            playground[padding + h.y][padding + h.x] = 1;
-        }
-
         for (int i = 0; i < days; i++) {
-            for (int y = 1; y < playgroundWidth - 1; y++) {
-                for (int x = 1; x < playgroundHeight - 1; x++) {
-                    int neighbour = 0;
-                    // East
-                    neighbour += playground[y][x + 1] & 1;
-                    // West
-                    neighbour += playground[y][x - 1] & 1;
-                    // SouthEast
-                    neighbour += playground[y - 1][x] & 1;
-                    // SouthWest
-                    neighbour += playground[y - 1][x - 1] & 1;
-                    // NorthEast
-                    neighbour += playground[y + 1][x + 1] & 1;
-                    // NorthWest
-                    neighbour += playground[y + 1][x] & 1;
-
-                    playground[y][x] |= neighbour << 1;
-                }
-            }
-
-            for (int y = 1; y < playgroundWidth - 1; y++) {
-                for (int x = 1; x < playgroundHeight - 1; x++) {
-                    final int hex = playground[y][x];
-                    playground[y][x] = (hex == 3 || hex == 4 || hex == 5) ? 1 : 0;
-                }
-            }
+            life.step();
         }
 
-        final int sum = Arrays.stream(playground).mapToInt(row -> Arrays.stream(row).sum()).sum();
-        System.out.println("Black tiles at the end of " + days + " day: " + sum);
+        System.out.println("Black tiles at the end of " + days + " day: " + life.size());
     }
 
-    private enum Direction {
-        East,
-        West,
-        SouthEast,
-        SouthWest,
-        NorthEast,
-        NorthWest;
-
-        public static class Builder {
-            private Boolean state;
-
-            Direction consume(int c) {
-                if (state == null) {
-                    if (c == 'e') {
-                        return East;
-                    } else if (c == 'w') {
-                        return West;
-                    } else if (c == 's') {
-                        state = false;
-                        return null;
-                    } else if (c == 'n') {
-                        state = true;
-                        return null;
-                    } else {
-                        throw new IllegalArgumentException("Unknown direction: " + Character.toString(c));
+    /**
+     * Decodes tile paths (one per line) directly from bytes and flips the final tile of every path.
+     */
+    private static void decode(InputStream stream, HexLife life) throws IOException {
+        final byte[] buffer = new byte[1 << 16];
+        int x = 0;
+        int y = 0;
+        // 0 - no prefix, otherwise 'n' or 's'
+        int prefix = 0;
+        boolean empty = true;
+
+        int read;
+        while ((read = stream.read(buffer)) > 0) {
+            for (int i = 0; i < read; i++) {
+                final int c = buffer[i];
+                switch (c) {
+                    case 'e' -> {
+                        if (prefix == 'n') {
+                            y++;
+                        } else if (prefix == 's') {
+                            y--;
+                        }
+                        if (prefix != 's') {
+                            x++;
+                        }
+                        prefix = 0;
+                        empty = false;
                     }
-                }
-
-                try {
-                    if (c == 'e') {
-                        return state ? NorthEast : SouthEast;
-                    } else if (c == 'w') {
-                        return state ? NorthWest : SouthWest;
-                    } else {
-                        throw new IllegalArgumentException("Unknown direction: " + Character.toString(c));
+                    case 'w' -> {
+                        if (prefix == 'n') {
+                            y++;
+                        } else if (prefix == 's') {
+                            y--;
+                        }
+                        if (prefix != 'n') {
+                            x--;
+                        }
+                        prefix = 0;
+                        empty = false;
                     }
-                } finally {
-                    state = null;
+                    case 'n', 's' -> {
+                        if (prefix != 0) {
+                            throw new IllegalArgumentException("Unknown direction: " + (char) prefix + (char) c);
+                        }
+                        prefix = c;
+                    }
+                    case '\n' -> {
+                        if (prefix != 0) {
+                            throw new IllegalArgumentException("Incomplete direction: " + (char) prefix);
+                        }
+                        if (!empty) {
+                            life.flip(x, y);
+                        }
+                        x = 0;
+                        y = 0;
+                        empty = true;
+                    }
+                    case '\r' -> {
+                    }
+                    default -> throw new IllegalArgumentException("Unknown direction: " + (char) c);
                 }
             }
         }
+        if (prefix != 0) {
+            throw new IllegalArgumentException("Incomplete direction: " + (char) prefix);
+        }
+        if (!empty) {
+            life.flip(x, y);
+        }
     }
 
-    private record Hex(int x, int y) {
-        static class Builder {
-            private int x;
-            private int y;
+    /**
+     * Hex cellular automaton without bounds. Black tiles are stored as packed axial coordinates in a primitive set
+     * and neighbours are counted only around black tiles.
+     */
+    private static final class HexLife {
+        private static final long BIAS = (1L << 63) | (1L << 31);
+        private static final long[] NEIGHBOUR_DELTAS = {
+                delta(1, 0), // East
+                delta(-1, 0), // West
+                delta(0, -1), // SouthEast
+                delta(-1, -1), // SouthWest
+                delta(1, 1), // NorthEast
+                delta(0, 1), // NorthWest
+        };
+
+        private TLongSet black = new TLongHashSet();
+
+        /**
+         * Packs axial coordinates: x into the high half and y into the low half, both biased to be non-negative.
+         */
+        static long pack(int x, int y) {
+            return BIAS + ((long) x << 32) + y;
+        }
+
+        private static long delta(int dx, int dy) {
+            return ((long) dx << 32) + dy;
+        }
+
+        public void flip(int x, int y) {
+            flip(pack(x, y));
+        }
 
-            Hex build() {
-                return new Hex(x, y);
+        public void flip(long key) {
+            if (!black.remove(key)) {
+                black.add(key);
             }
+        }
 
-            void apply(Direction d) {
-                switch (d) {
-                    case East -> x++;
-                    case West -> x--;
-                    case SouthEast -> y--;
-                    case SouthWest -> {
-                        y--;
-                        x--;
-                    }
-                    case NorthEast -> {
-                        x++;
-                        y++;
-                    }
-                    case NorthWest -> y++;
+        public void step() {
+            final TLongIntMap neighbours = new TLongIntHashMap(black.size() << 2);
+            black.forEach(tile -> {
+                for (long delta : NEIGHBOUR_DELTAS) {
+                    neighbours.adjustOrPutValue(tile + delta, 1, 1);
                 }
-            }
+                return true;
+            });
+
+            final TLongSet next = new TLongHashSet(black.size() << 1);
+            neighbours.forEachEntry((tile, amount) -> {
+                if (amount == 2 || amount == 1 && black.contains(tile)) {
+                    next.add(tile);
+                }
+                return true;
+            });
+            black = next;
+        }
+
+        public int size() {
+            return black.size();
         }
     }
 }
@@ -1,5 +1,12 @@
 package org.xblackcat.adventofcode.year2020;
 
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TLongLongMap;
+import gnu.trove.map.hash.TLongLongHashMap;
+
+import java.util.concurrent.ThreadLocalRandom;
+
 /**
  * --- Day 25: Combo Breaker ---
  * You finally reach the check-in desk. Unfortunately, their registration systems are currently offline, and they cannot check you in. Noticing the look on your face, they quickly add that tech support is already on the way! They even created all the room keys this morning; you can take yours now and give them your room deposit once the registration system comes back online.
@@ -40,19 +47,22 @@ package org.xblackcat.adventofcode.year2020;
  * What encryption key is the handshake trying to establish?
  */
 public class Day25 {
+    private static final long SUBJECT = 7;
+    private static final long MODULUS = 20201227;
+
     public static void main(String[] args) {
         detectKey(5764801, 17807724);
         detectKey(3248366, 4738476);
     }
 
-    private static long detectKey(int cardPK, int doorPK) {
-        final int cardLoopSize = detectLoopSize(cardPK);
-        final int doorLoopSize = detectLoopSize(doorPK);
+    private static long detectKey(long cardPK, long doorPK) {
+        final long cardLoopSize = detectLoopSize(cardPK);
+        final long doorLoopSize = detectLoopSize(doorPK);
 
         System.out.println("CardLS: " + cardLoopSize + ", DoorLS: " + doorLoopSize);
 
-        int ekCard = transform(doorPK, cardLoopSize);
-        int ekDoor = transform(cardPK, doorLoopSize);
+        long ekCard = transform(doorPK, cardLoopSize);
+        long ekDoor = transform(cardPK, doorLoopSize);
 
         assert ekCard == ekDoor;
         System.out.println("Encryption key is " + ekCard);
@@ -60,22 +70,250 @@ public class Day25 {
         return ekCard;
     }
 
-    private static int detectLoopSize(int number) {
-        int loopSize = 0;
-        int subject = 7;
-        long value = 1;
-        do {
-            value = (value * subject) % 20201227;
-            loopSize++;
-        } while (value != number);
+    private static long detectLoopSize(long number) {
+        final long loopSize = discreteLog(SUBJECT, number, MODULUS);
+        if (loopSize < 0) {
+            throw new IllegalArgumentException("Number " + number + " can't be produced from subject " + SUBJECT);
+        }
         return loopSize;
     }
 
-    private static int transform(int subject, int loopSize) {
+    private static long transform(long subject, long loopSize) {
+        return modPow(subject, loopSize, MODULUS);
+    }
+
+    /**
+     * Solves {@code subject^x = value (mod modulus)} for a prime modulus below 2^62 with Pohlig-Hellman algorithm:
+     * the discrete log is found modulo every prime power of the subject order with baby-step giant-step and the parts
+     * are combined with the chinese remainder theorem.
+     *
+     * @return the smallest positive x or -1 if there is no solution.
+     */
+    static long discreteLog(long subject, long value, long modulus) {
+        subject = Math.floorMod(subject, modulus);
+        value = Math.floorMod(value, modulus);
+        if (subject == 0) {
+            return value == 0 ? 1 : -1;
+        }
+
+        final TLongList factors = factorize(modulus - 1);
+        long order = modulus - 1;
+        for (int i = 0; i < factors.size(); i++) {
+            final long q = factors.get(i);
+            while (order % q == 0 && modPow(subject, order / q, modulus) == 1) {
+                order /= q;
+            }
+        }
+        if (modPow(value, order, modulus) != 1) {
+            return -1;
+        }
+
+        long x = 0;
+        long m = 1;
+        for (int i = 0; i < factors.size(); i++) {
+            final long q = factors.get(i);
+            if (order % q != 0) {
+                continue;
+            }
+            long qe = 1;
+            while (order % (qe * q) == 0) {
+                qe *= q;
+            }
+            final long xq = discreteLogPrimePower(subject, value, modulus, order, q, qe);
+
+            // Combine x (mod m) and xq (mod qe)
+            final long t = mulMod(Math.floorMod(xq - x, qe), modInverse(m % qe, qe), qe);
+            x += m * t;
+            m *= qe;
+        }
+        return x == 0 ? order : x;
+    }
+
+    /**
+     * Solves the discrete log in the subgroup of order {@code qe = q^e} digit by digit in base q.
+     */
+    private static long discreteLogPrimePower(long subject, long value, long modulus, long order, long q, long qe) {
+        final long cofactor = order / qe;
+        final long g = modPow(subject, cofactor, modulus);
+        final long h = modPow(value, cofactor, modulus);
+        // Generator of the subgroup of order q
+        final long gamma = modPow(g, qe / q, modulus);
+        final long gInverse = modInverse(g, modulus);
+
+        long x = 0;
+        long qk = 1;
+        for (long power = qe / q; power >= 1; power /= q) {
+            final long hk = modPow(mulMod(modPow(gInverse, x, modulus), h, modulus), power, modulus);
+            final long d = babyStepGiantStep(gamma, hk, modulus, q);
+            x += d * qk;
+            qk *= q;
+        }
+        return x;
+    }
+
+    /**
+     * Solves {@code g^x = h (mod modulus)} where the order of g is known to be {@code order}.
+     */
+    private static long babyStepGiantStep(long g, long h, long modulus, long order) {
+        final long m = (long) Math.ceil(Math.sqrt((double) order));
+        final TLongLongMap babySteps = new TLongLongHashMap((int) Math.min(m, Integer.MAX_VALUE >> 1), 0.5f, -1, -1);
         long value = 1;
-        for (int i = 0; i < loopSize; i++) {
-            value = (value * subject) % 20201227;
+        for (long j = 0; j < m; j++) {
+            babySteps.putIfAbsent(value, j);
+            value = mulMod(value, g, modulus);
+        }
+
+        final long factor = modPow(modInverse(g, modulus), m, modulus);
+        long gamma = h;
+        for (long i = 0; i < m; i++) {
+            final long j = babySteps.get(gamma);
+            if (j >= 0) {
+                return i * m + j;
+            }
+            gamma = mulMod(gamma, factor, modulus);
+        }
+        throw new IllegalStateException("No discrete log found for " + h);
+    }
+
+    /**
+     * Returns distinct prime factors of the number.
+     */
+    private static TLongList factorize(long n) {
+        final TLongList factors = new TLongArrayList();
+        for (long p = 2; p < 1000 && p * p <= n; p++) {
+            if (n % p == 0) {
+                factors.add(p);
+                while (n % p == 0) {
+                    n /= p;
+                }
+            }
+        }
+        factorizeLarge(n, factors);
+        return factors;
+    }
+
+    private static void factorizeLarge(long n, TLongList factors) {
+        if (n == 1) {
+            return;
+        }
+        if (isPrime(n)) {
+            if (!factors.contains(n)) {
+                factors.add(n);
+            }
+            return;
+        }
+        final long d = pollardRho(n);
+        factorizeLarge(d, factors);
+        factorizeLarge(n / d, factors);
+    }
+
+    private static long pollardRho(long n) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (true) {
+            final long c = random.nextLong(1, n);
+            long x = random.nextLong(0, n);
+            long y = x;
+            long d = 1;
+            while (d == 1) {
+                x = (mulMod(x, x, n) + c) % n;
+                y = (mulMod(y, y, n) + c) % n;
+                y = (mulMod(y, y, n) + c) % n;
+                d = gcd(Math.abs(x - y), n);
+            }
+            if (d != n) {
+                return d;
+            }
+        }
+    }
+
+    private static boolean isPrime(long n) {
+        if (n < 2) {
+            return false;
+        }
+        final long[] bases = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37};
+        for (long p : bases) {
+            if (n % p == 0) {
+                return n == p;
+            }
+        }
+        long d = n - 1;
+        int r = Long.numberOfTrailingZeros(d);
+        d >>= r;
+        for (long a : bases) {
+            long x = modPow(a, d, n);
+            if (x == 1 || x == n - 1) {
+                continue;
+            }
+            boolean composite = true;
+            for (int i = 1; i < r; i++) {
+                x = mulMod(x, x, n);
+                if (x == n - 1) {
+                    composite = false;
+                    break;
+                }
+            }
+            if (composite) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            final long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    static long modPow(long base, long exp, long modulus) {
+        long result = 1 % modulus;
+        base = Math.floorMod(base, modulus);
+        while (exp > 0) {
+            if ((exp & 1) != 0) {
+                result = mulMod(result, base, modulus);
+            }
+            base = mulMod(base, base, modulus);
+            exp >>= 1;
+        }
+        return result;
+    }
+
+    private static long modInverse(long a, long modulus) {
+        long t = 0, newT = 1;
+        long r = modulus, newR = Math.floorMod(a, modulus);
+        while (newR != 0) {
+            final long q = r / newR;
+            long tmp = t - q * newT;
+            t = newT;
+            newT = tmp;
+            tmp = r - q * newR;
+            r = newR;
+            newR = tmp;
+        }
+        if (r != 1) {
+            throw new ArithmeticException(a + " is not invertible modulo " + modulus);
+        }
+        return Math.floorMod(t, modulus);
+    }
+
+    /**
+     * Multiplies two residues modulo a number below 2^62 without overflow.
+     */
+    private static long mulMod(long a, long b, long modulus) {
+        if ((a | b) < (1L << 31)) {
+            return a * b % modulus;
+        }
+        final long low = a * b;
+        long r = Math.multiplyHigh(a, b) % modulus;
+        for (int i = 63; i >= 0; i--) {
+            r = (r << 1) | ((low >>> i) & 1);
+            if (r >= modulus) {
+                r -= modulus;
+            }
         }
-        return (int) value;
+        return r;
     }
 }
@@ -1,5 +1,8 @@
 package org.xblackcat.adventofcode.year2020;
 
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
@@ -75,54 +78,65 @@ public class Day7 {
     public static void main(String[] args) throws IOException {
 //        part1();
         part2();
+//        checkIncremental();
     }
 
     private static void part1() throws IOException {
         final List<BagRule> rules = readRules("/year2020/day7.txt");
 
-        Map<String, Set<String>> rulesTree = new HashMap<>();
-        for (var rule : rules) {
-            for (var bag : rule.bags) {
-                rulesTree.computeIfAbsent(bag.color, k -> new HashSet<>()).add(rule.container);
-            }
-        }
-
-        Set<String> visited = new HashSet<>();
-        contains(rulesTree, visited, "shiny gold");
-        System.out.println(visited.size());
+        final ContainmentIndex index = new ContainmentIndex(new BagGraph(rules));
+        System.out.println(index.countContainers("shiny gold"));
     }
 
     private static void part2() throws IOException {
         final List<BagRule> rules = readRules("/year2020/day7.txt");
 
-        Map<String, BagAmount[]> rulesTree = new HashMap<>();
-        for (var r : rules) {
-            rulesTree.put(r.container, r.bags);
-        }
-
-        System.out.println(amount(rulesTree, "shiny gold"));
+        final BagGraph graph = new BagGraph(rules);
+        System.out.println(graph.totalContained("shiny gold"));
     }
 
-    private static long amount(Map<String, BagAmount[]> rulesTree, String color) {
-        var rule = rulesTree.get(color);
-        if (rule == null) {
-            return 0;
+    /**
+     * Builds the index from the first half of the rules, adds the rest one by one and compares the result with the
+     * index built from all the rules. A rule closing a cycle must be rejected without changing the index.
+     */
+    private static void checkIncremental() throws IOException {
+        final List<BagRule> rules = readRules("/year2020/day7.txt");
+        final ContainmentIndex full = new ContainmentIndex(new BagGraph(rules));
+        final ContainmentIndex index = new ContainmentIndex(new BagGraph(rules.subList(0, rules.size() / 2)));
+        for (BagRule rule : rules.subList(rules.size() / 2, rules.size())) {
+            index.addRule(rule);
         }
-        long amount = 0;
-        for (var r : rule) {
-            amount += r.amount * (amount(rulesTree, r.color) + 1);
+        final Map<String, List<String>> expected = new HashMap<>();
+        for (BagRule rule : rules) {
+            expected.put(rule.container, full.getContainers(rule.container));
         }
-        return amount;
-    }
+        assertContainers(index, expected);
 
-    private static void contains(Map<String, Set<String>> rulesTree, Set<String> visited, String color) {
-        final Set<String> set = rulesTree.get(color);
-        if (set == null) {
-            return;
+        // The first bag is fine, the second one closes a cycle
+        final BagRule inner = rules.stream().filter(r -> full.countContainers(r.container) > 0).findFirst().orElseThrow();
+        final String outer = full.getContainers(inner.container).get(0);
+        try {
+            index.addRule(new BagRule(
+                    inner.container,
+                    new BagAmount[]{new BagAmount("plain checked", 1), new BagAmount(outer, 1)}
+            ));
+            throw new IllegalStateException("Cycle " + inner.container + " -> " + outer + " is not detected");
+        } catch (IllegalStateException e) {
+            if (!e.getMessage().endsWith("makes a cycle")) {
+                throw e;
+            }
         }
-        for (var c : set) {
-            if (visited.add(c)) {
-                contains(rulesTree, visited, c);
+        assertContainers(index, expected);
+        if (index.countContainers("plain checked") != 0) {
+            throw new IllegalStateException("Rejected rule is partially merged");
+        }
+        System.out.println("Incremental index matches the rebuilt one for " + expected.size() + " colours");
+    }
+
+    private static void assertContainers(ContainmentIndex index, Map<String, List<String>> expected) {
+        for (var e : expected.entrySet()) {
+            if (!new HashSet<>(index.getContainers(e.getKey())).equals(new HashSet<>(e.getValue()))) {
+                throw new IllegalStateException("Containers of " + e.getKey() + " differ");
             }
         }
     }
@@ -155,6 +169,269 @@ public class Day7 {
         return new BagRule(container, rules.toArray(new BagAmount[0]));
     }
 
+    /**
+     * Bag rules as a graph over interned colour ids. Edges of every colour are stored in CSR form: edges of colour
+     * {@code c} are at {@code [offsets[c], offsets[c + 1])} in the edge arrays.
+     */
+    private static class BagGraph {
+        private final TObjectIntMap<String> colorIds = new TObjectIntHashMap<>(16, 0.5f, -1);
+        private final int[] offsets;
+        private final int[] children;
+        private final int[] amounts;
+        private final int[] parentOffsets;
+        private final int[] parents;
+
+        private long[] totals;
+
+        public BagGraph(List<BagRule> rules) {
+            int edges = 0;
+            for (var rule : rules) {
+                intern(rule.container);
+                for (var bag : rule.bags) {
+                    intern(bag.color);
+                }
+                edges += rule.bags.length;
+            }
+
+            final int size = colorIds.size();
+            offsets = new int[size + 1];
+            parentOffsets = new int[size + 1];
+            for (var rule : rules) {
+                offsets[colorIds.get(rule.container) + 1] += rule.bags.length;
+                for (var bag : rule.bags) {
+                    parentOffsets[colorIds.get(bag.color) + 1]++;
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                offsets[i + 1] += offsets[i];
+                parentOffsets[i + 1] += parentOffsets[i];
+            }
+
+            children = new int[edges];
+            amounts = new int[edges];
+            parents = new int[edges];
+            final int[] childPos = Arrays.copyOf(offsets, size);
+            final int[] parentPos = Arrays.copyOf(parentOffsets, size);
+            for (var rule : rules) {
+                final int container = colorIds.get(rule.container);
+                for (var bag : rule.bags) {
+                    final int child = colorIds.get(bag.color);
+                    children[childPos[container]] = child;
+                    amounts[childPos[container]++] = bag.amount;
+                    parents[parentPos[child]++] = container;
+                }
+            }
+        }
+
+        public int size() {
+            return colorIds.size();
+        }
+
+        /**
+         * @return id of the colour or -1 if the colour is not mentioned in rules
+         */
+        public int id(String color) {
+            return colorIds.get(color);
+        }
+
+        /**
+         * @return total amount of bags inside a bag of the colour
+         */
+        public long totalContained(String color) {
+            final int id = id(color);
+            if (id < 0) {
+                return 0;
+            }
+            if (totals == null) {
+                totals = computeTotals();
+            }
+            return totals[id];
+        }
+
+        /**
+         * Computes bag totals for all colours in a single pass: a colour is processed once all its inner bags are.
+         */
+        private long[] computeTotals() {
+            final int size = size();
+            final long[] result = new long[size];
+            final int[] pending = new int[size];
+            final int[] queue = new int[size];
+            int head = 0;
+            int tail = 0;
+            for (int c = 0; c < size; c++) {
+                pending[c] = offsets[c + 1] - offsets[c];
+                if (pending[c] == 0) {
+                    queue[tail++] = c;
+                }
+            }
+
+            while (head < tail) {
+                final int c = queue[head++];
+                long amount = 0;
+                for (int e = offsets[c]; e < offsets[c + 1]; e++) {
+                    amount += amounts[e] * (result[children[e]] + 1);
+                }
+                result[c] = amount;
+
+                for (int e = parentOffsets[c]; e < parentOffsets[c + 1]; e++) {
+                    final int p = parents[e];
+                    if (--pending[p] == 0) {
+                        queue[tail++] = p;
+                    }
+                }
+            }
+            if (tail < size) {
+                throw new IllegalStateException("Bag rules contain a cycle");
+            }
+            return result;
+        }
+
+        private void intern(String color) {
+            if (!colorIds.containsKey(color)) {
+                colorIds.put(color, colorIds.size());
+            }
+        }
+    }
+
+    /**
+     * Transitive closure of bag rules: for every colour keeps bitsets of colours which could eventually contain it
+     * and colours it could eventually contain. New rules are merged into the closure without a traversal.
+     */
+    private static class ContainmentIndex {
+        private final TObjectIntMap<String> colorIds = new TObjectIntHashMap<>(16, 0.5f, -1);
+        private final List<String> colors = new ArrayList<>();
+        private final List<BitSet> containers = new ArrayList<>();
+        private final List<BitSet> contents = new ArrayList<>();
+
+        public ContainmentIndex(BagGraph graph) {
+            final int size = graph.size();
+            final Object[] names = graph.colorIds.keys();
+            colors.addAll(Collections.nCopies(size, null));
+            for (Object name : names) {
+                final int id = graph.colorIds.get(name);
+                colorIds.put((String) name, id);
+                colors.set(id, (String) name);
+            }
+            for (int c = 0; c < size; c++) {
+                containers.add(new BitSet(size));
+                contents.add(new BitSet(size));
+            }
+
+            // Containers are collected from outermost bags down, contents - from innermost bags up
+            final int[] order = topologicalOrder(graph);
+            for (int c : order) {
+                final BitSet set = containers.get(c);
+                for (int e = graph.parentOffsets[c]; e < graph.parentOffsets[c + 1]; e++) {
+                    final int p = graph.parents[e];
+                    set.set(p);
+                    set.or(containers.get(p));
+                }
+            }
+            for (int i = order.length - 1; i >= 0; i--) {
+                final int c = order[i];
+                final BitSet set = contents.get(c);
+                for (int e = graph.offsets[c]; e < graph.offsets[c + 1]; e++) {
+                    final int child = graph.children[e];
+                    set.set(child);
+                    set.or(contents.get(child));
+                }
+            }
+        }
+
+        /**
+         * Orders colours so every container goes before the bags it contains.
+         */
+        private static int[] topologicalOrder(BagGraph graph) {
+            final int size = graph.size();
+            final int[] pending = new int[size];
+            final int[] queue = new int[size];
+            int head = 0;
+            int tail = 0;
+            for (int c = 0; c < size; c++) {
+                pending[c] = graph.parentOffsets[c + 1] - graph.parentOffsets[c];
+                if (pending[c] == 0) {
+                    queue[tail++] = c;
+                }
+            }
+            while (head < tail) {
+                final int c = queue[head++];
+                for (int e = graph.offsets[c]; e < graph.offsets[c + 1]; e++) {
+                    if (--pending[graph.children[e]] == 0) {
+                        queue[tail++] = graph.children[e];
+                    }
+                }
+            }
+            if (tail < size) {
+                throw new IllegalStateException("Bag rules contain a cycle");
+            }
+            return queue;
+        }
+
+        /**
+         * Merges a new rule line into the closure. A rule which makes a cycle is rejected without changing the index.
+         */
+        public void addRule(BagRule rule) {
+            // All new edges start from the container, so a cycle could only be closed through already known edges
+            final int containerId = colorIds.get(rule.container);
+            for (var bag : rule.bags) {
+                if (bag.color.equals(rule.container)) {
+                    throw new IllegalStateException("Rule for " + rule.container + " makes a cycle");
+                }
+                final int childId = colorIds.get(bag.color);
+                if (containerId >= 0 && childId >= 0 && contents.get(childId).get(containerId)) {
+                    throw new IllegalStateException("Rule for " + rule.container + " makes a cycle");
+                }
+            }
+
+            final int container = intern(rule.container);
+            for (var bag : rule.bags) {
+                final int child = intern(bag.color);
+
+                final BitSet newContainers = (BitSet) containers.get(container).clone();
+                newContainers.set(container);
+                final BitSet newContents = (BitSet) contents.get(child).clone();
+                newContents.set(child);
+
+                for (int c = newContents.nextSetBit(0); c >= 0; c = newContents.nextSetBit(c + 1)) {
+                    containers.get(c).or(newContainers);
+                }
+                for (int c = newContainers.nextSetBit(0); c >= 0; c = newContainers.nextSetBit(c + 1)) {
+                    contents.get(c).or(newContents);
+                }
+            }
+        }
+
+        public int countContainers(String color) {
+            final int id = colorIds.get(color);
+            return id < 0 ? 0 : containers.get(id).cardinality();
+        }
+
+        public List<String> getContainers(String color) {
+            final int id = colorIds.get(color);
+            if (id < 0) {
+                return Collections.emptyList();
+            }
+            final BitSet set = containers.get(id);
+            final List<String> result = new ArrayList<>(set.cardinality());
+            for (int c = set.nextSetBit(0); c >= 0; c = set.nextSetBit(c + 1)) {
+                result.add(colors.get(c));
+            }
+            return result;
+        }
+
+        private int intern(String color) {
+            int id = colorIds.get(color);
+            if (id < 0) {
+                id = colors.size();
+                colorIds.put(color, id);
+                colors.add(color);
+                containers.add(new BitSet());
+                contents.add(new BitSet());
+            }
+            return id;
+        }
+    }
+
     private static record BagAmount(String color, int amount) {
     }
 
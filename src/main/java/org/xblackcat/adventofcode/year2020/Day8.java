@@ -1,13 +1,11 @@
 package org.xblackcat.adventofcode.year2020;
 
-import gnu.trove.set.TIntSet;
-import gnu.trove.set.hash.TIntHashSet;
-
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -96,7 +94,7 @@ public class Day8 {
 
     private static void part1() throws IOException {
         final Line[] code = load("/year2020/day8.txt");
-        Result res = executeProgram(code);
+        Result res = new HandheldVM(code).run((idx, op, value, acc) -> System.out.printf("%03d: %s %+d %n", idx, op, value));
 
         if (res.terminated) {
             System.out.println("Terminated!");
@@ -111,47 +109,196 @@ public class Day8 {
     private static void part2() throws IOException {
         final Line[] code = load("/year2020/day8.txt");
 
-        for (int i = 0; i < code.length; i++) {
-            if (code[i].op == Op.acc) {
-                continue;
-            }
+        final int i = findCorruptedLine(code);
+        if (i < 0) {
+            System.out.println("Program can't be fixed by a single flip");
+            return;
+        }
 
-            var tmp = code[i];
+        var tmp = code[i];
+        final Line newLine = new Line(tmp.op == Op.nop ? Op.jmp : Op.nop, tmp.value);
+        final HandheldVM vm = new HandheldVM(code);
+        vm.flip(i);
+        Result res = vm.run();
+        System.out.printf("Fix line #%03d: %s->%s%nValue: %d", i, tmp, newLine, res.value);
+    }
+
+    /**
+     * Finds the jmp/nop instruction to flip for the program to terminate. Instructions which reach the program end
+     * are marked once over the reversed control flow graph, then the looping path is walked to find the first flip
+     * which jumps into the marked set.
+     *
+     * @return index of the corrupted instruction or -1 if no single flip fixes the program
+     */
+    private static int findCorruptedLine(Line[] code) {
+        final int n = code.length;
 
-            Op newOp = tmp.op == Op.nop ? Op.jmp : Op.nop;
-            final Line newLine = new Line(newOp, tmp.value);
-            code[i] = newLine;
-            Result res = executeProgram(code);
-            if (!res.terminated) {
-                System.out.printf("Fix line #%03d: %s->%s%nValue: %d", i, tmp, newLine, res.value);
-                break;
+        // Reversed control flow graph in CSR form: predecessors of i are at [offsets[i], offsets[i + 1])
+        final int[] offsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            final int next = next(code[i].op, code[i].value, i);
+            if (next >= 0 && next < n) {
+                offsets[next + 1]++;
             }
+        }
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        final int[] predecessors = new int[offsets[n]];
+        final int[] pos = Arrays.copyOf(offsets, n);
+        for (int i = 0; i < n; i++) {
+            final int next = next(code[i].op, code[i].value, i);
+            if (next >= 0 && next < n) {
+                predecessors[pos[next]++] = i;
+            }
+        }
 
-            code[i] = tmp;
+        final boolean[] terminates = new boolean[n];
+        final int[] queue = new int[n];
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < n; i++) {
+            if (next(code[i].op, code[i].value, i) >= n) {
+                terminates[i] = true;
+                queue[tail++] = i;
+            }
+        }
+        while (head < tail) {
+            final int i = queue[head++];
+            for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+                final int p = predecessors[e];
+                if (!terminates[p]) {
+                    terminates[p] = true;
+                    queue[tail++] = p;
+                }
+            }
         }
-    }
 
-    private static Result executeProgram(Line[] code) {
-        TIntSet visitedIdx = new TIntHashSet();
+        final boolean[] visited = new boolean[n];
         int idx = 0;
-        int acc = 0;
-
-        while (idx < code.length && visitedIdx.add(idx)) {
+        while (idx >= 0 && idx < n && !visited[idx]) {
+            visited[idx] = true;
             final Line line = code[idx];
-            System.out.printf("%03d: %s %n", idx, line);
-            switch (line.op) {
-                case nop -> idx++;
-                case acc -> {
+            if (line.op != Op.acc) {
+                final int flipped = next(line.op == Op.nop ? Op.jmp : Op.nop, line.value, idx);
+                if (flipped >= n || flipped >= 0 && terminates[flipped] && !visited[flipped]) {
+                    return idx;
+                }
+            }
+            idx = next(line.op, line.value, idx);
+        }
+        return -1;
+    }
+
+    private static int next(Op op, int value, int idx) {
+        return op == Op.jmp ? idx + value : idx + 1;
+    }
+
+    /**
+     * Interpreter of a loaded program. Every instruction is packed into an int: opcode in the two high bits and
+     * the operand in the rest. Visited instructions are tracked in a bitset which is reused between runs.
+     */
+    private static final class HandheldVM {
+        private static final int OPERAND_BITS = 30;
+        private static final int OPERAND_MASK = (1 << OPERAND_BITS) - 1;
+        private static final int NOP = Op.nop.ordinal();
+        private static final int ACC = Op.acc.ordinal();
+        private static final int JMP = Op.jmp.ordinal();
+        private static final Op[] OPS = Op.values();
+
+        private final int[] program;
+        private final long[] visited;
+
+        public HandheldVM(Line[] code) {
+            program = new int[code.length];
+            for (int i = 0; i < code.length; i++) {
+                final int value = code[i].value;
+                if (value < -(1 << OPERAND_BITS - 1) || value >= 1 << OPERAND_BITS - 1) {
+                    throw new IllegalArgumentException("Operand is out of range at line #" + i + ": " + code[i]);
+                }
+                program[i] = (code[i].op.ordinal() << OPERAND_BITS) | (value & OPERAND_MASK);
+            }
+            visited = new long[(code.length + 63) >> 6];
+        }
+
+        /**
+         * Swaps jmp and nop operations of the instruction
+         */
+        public void flip(int idx) {
+            final int op = program[idx] >>> OPERAND_BITS;
+            if (op == JMP) {
+                program[idx] = (NOP << OPERAND_BITS) | (program[idx] & OPERAND_MASK);
+            } else if (op == NOP) {
+                program[idx] = (JMP << OPERAND_BITS) | (program[idx] & OPERAND_MASK);
+            }
+        }
+
+        public Result run() {
+            Arrays.fill(visited, 0);
+            final int[] program = this.program;
+            final long[] visited = this.visited;
+            int idx = 0;
+            int acc = 0;
+
+            while (idx >= 0 && idx < program.length) {
+                final long bit = 1L << idx;
+                if ((visited[idx >> 6] & bit) != 0) {
+                    break;
+                }
+                visited[idx >> 6] |= bit;
+
+                final int insn = program[idx];
+                final int op = insn >>> OPERAND_BITS;
+                if (op == JMP) {
+                    idx += (insn << 2) >> 2;
+                } else {
+                    if (op == ACC) {
+                        acc += (insn << 2) >> 2;
+                    }
                     idx++;
-                    acc += line.value;
                 }
-                case jmp -> idx += line.value;
             }
+
+            return new Result(idx < program.length, acc);
         }
 
-        return new Result(idx < code.length, acc);
+        /**
+         * Runs the program and notifies the listener before every executed instruction.
+         */
+        public Result run(TraceListener listener) {
+            Arrays.fill(visited, 0);
+            int idx = 0;
+            int acc = 0;
+
+            while (idx >= 0 && idx < program.length) {
+                final long bit = 1L << idx;
+                if ((visited[idx >> 6] & bit) != 0) {
+                    break;
+                }
+                visited[idx >> 6] |= bit;
+
+                final int insn = program[idx];
+                final int op = insn >>> OPERAND_BITS;
+                final int value = (insn << 2) >> 2;
+                listener.onInstruction(idx, OPS[op], value, acc);
+                if (op == JMP) {
+                    idx += value;
+                } else {
+                    if (op == ACC) {
+                        acc += value;
+                    }
+                    idx++;
+                }
+            }
+
+            return new Result(idx < program.length, acc);
+        }
     }
 
+    @FunctionalInterface
+    private interface TraceListener {
+        void onInstruction(int idx, Op op, int value, int acc);
+    }
 
     private static Line[] load(String name) throws IOException {
         List<Line> code = new ArrayList<>();
@@ -1,13 +1,12 @@
 package org.xblackcat.adventofcode.year2020;
 
-import gnu.trove.set.TLongSet;
-import gnu.trove.set.hash.TLongHashSet;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.Arrays;
 
 /**
  * --- Day 9: Encoding Error ---
@@ -101,85 +100,255 @@ public class Day9 {
     }
 
     private static void part2() throws IOException {
-        final String name = "/year2020/day9.txt";
-        var value = validate(name, 25);
-        if (value != null) {
-            long[] buffer;
-            try (
-                    final InputStream stream = Day8.class.getResourceAsStream(name);
-                    final BufferedReader reader = new BufferedReader(new InputStreamReader(stream))
-            ) {
-                buffer = reader.lines().mapToLong(Long::parseLong).toArray();
-            }
-
-
-            long sum = 0;
-            int lower = 0;
-            int upper = 0;
-
-            int limit = buffer.length;
-            while (upper < limit && lower < limit) {
-                if (sum < value) {
-                    sum += buffer[upper++];
-                } else if (sum > value) {
-                    sum -= buffer[lower++];
-                } else {
-                    break;
-                }
-            }
+        final long[] values = load("/year2020/day9.txt");
 
-            final long[] range = Arrays.copyOfRange(buffer, lower, upper);
-            long min = Long.MAX_VALUE;
-            long max = Long.MIN_VALUE;
-            for (long l : range) {
-                if (l < min) {
-                    min = l;
-                }
-                if (l > max) {
-                    max = l;
+        final XmasValidator validator = new XmasValidator(25);
+        for (long value : values) {
+            if (!validator.accept(value)) {
+                final Range range = new RangeIndex(values).findRange(value);
+                if (range != null) {
+                    System.out.println("Found range [" + range.min + ", " + range.max + "]. Result: " + (range.min + range.max));
                 }
+                break;
             }
+        }
+    }
 
-            if (sum == value) {
-                System.out.println("Found range [" + min + ", " + max + "]. Result: " + (min + max));
+    private static long[] load(String name) throws IOException {
+        final TLongList values = new TLongArrayList();
+        try (
+                final InputStream stream = Day8.class.getResourceAsStream(name);
+                final NumberReader reader = new NumberReader(stream)
+        ) {
+            while (reader.next()) {
+                values.add(reader.value());
             }
         }
+        return values.toArray();
     }
 
     private static Long validate(String name, int amount) throws IOException {
-        long[] buffer = new long[amount];
-        Arrays.fill(buffer, Long.MIN_VALUE);
+        final XmasValidator validator = new XmasValidator(amount);
         try (
                 final InputStream stream = Day8.class.getResourceAsStream(name);
-                final BufferedReader reader = new BufferedReader(new InputStreamReader(stream))
+                final NumberReader reader = new NumberReader(stream)
         ) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                long value = Long.parseLong(line);
+            while (reader.next()) {
+                final long value = reader.value();
+                if (!validator.accept(value)) {
+                    return value;
+                }
+            }
+        }
+        return null;
+    }
 
-                if (buffer[buffer.length - 1] != Long.MIN_VALUE) {
-                    if (!checkValue(buffer, value)) {
-                        return value;
-                    }
+    /**
+     * Validates XMAS stream number by number. The window is kept in a ring buffer together with a multiset of its
+     * values so every number is checked in O(window) without allocations.
+     */
+    private static final class XmasValidator {
+        private final long[] window;
+        private final TLongIntMap counts;
+        private int head;
+        private int size;
+
+        public XmasValidator(int preamble) {
+            if (preamble < 2) {
+                throw new IllegalArgumentException("Preamble should contain at least 2 numbers");
+            }
+            window = new long[preamble];
+            counts = new TLongIntHashMap(preamble << 1, 0.5f, Long.MIN_VALUE, 0);
+        }
+
+        /**
+         * Adds the value to the window.
+         *
+         * @return false if the preamble is filled and the value is not a sum of two different numbers of the window
+         */
+        public boolean accept(long value) {
+            final boolean valid = size < window.length || isSumOfPair(value);
+
+            if (size == window.length) {
+                final long old = window[head];
+                if (counts.adjustOrPutValue(old, -1, 0) == 0) {
+                    counts.remove(old);
                 }
+            } else {
+                size++;
+            }
+            window[head] = value;
+            counts.adjustOrPutValue(value, 1, 1);
+            if (++head == window.length) {
+                head = 0;
+            }
+            return valid;
+        }
 
-                System.arraycopy(buffer, 0, buffer, 1, buffer.length - 1);
-                buffer[0] = value;
+        private boolean isSumOfPair(long value) {
+            for (long b : window) {
+                final long pair = value - b;
+                if (pair != b && counts.get(pair) > 0) {
+                    return true;
+                }
             }
+            return false;
         }
-        return null;
     }
 
-    private static boolean checkValue(long[] buffer, long value) {
-        TLongSet testSet = new TLongHashSet();
-        for (long b : buffer) {
-            testSet.add(b);
-            if (testSet.contains(value - b)) {
-                return true;
+    /**
+     * Index for contiguous range queries over a fixed sequence: prefix sums with a hash of the first position of
+     * every prefix sum find a range with the given sum in a single pass (negative numbers are allowed) and sparse
+     * tables give minimum and maximum of any range in O(1).
+     */
+    private static final class RangeIndex {
+        private final long[] prefixSums;
+        private final TLongIntMap firstPrefixPositions;
+        private final long[][] minTable;
+        private final long[][] maxTable;
+
+        public RangeIndex(long[] values) {
+            final int n = values.length;
+            prefixSums = new long[n + 1];
+            firstPrefixPositions = new TLongIntHashMap(n + 1, 0.5f, Long.MIN_VALUE, -1);
+            firstPrefixPositions.put(0, 0);
+            for (int i = 0; i < n; i++) {
+                prefixSums[i + 1] = prefixSums[i] + values[i];
+                firstPrefixPositions.putIfAbsent(prefixSums[i + 1], i + 1);
+            }
+
+            final int levels = n == 0 ? 1 : 32 - Integer.numberOfLeadingZeros(n);
+            minTable = new long[levels][];
+            maxTable = new long[levels][];
+            minTable[0] = values.clone();
+            maxTable[0] = values.clone();
+            for (int k = 1; k < levels; k++) {
+                final int half = 1 << (k - 1);
+                final int size = n - (1 << k) + 1;
+                minTable[k] = new long[size];
+                maxTable[k] = new long[size];
+                for (int i = 0; i < size; i++) {
+                    minTable[k][i] = Math.min(minTable[k - 1][i], minTable[k - 1][i + half]);
+                    maxTable[k][i] = Math.max(maxTable[k - 1][i], maxTable[k - 1][i + half]);
+                }
+            }
+        }
+
+        /**
+         * Looks for a contiguous range of at least two numbers with the given sum. If several ranges exist, the one
+         * which ends first is returned.
+         *
+         * @return found range or null
+         */
+        public Range findRange(long target) {
+            return findRanges(target)[0];
+        }
+
+        /**
+         * Looks for ranges of all the targets in a single pass over prefix sums. Every target is dropped from the pass
+         * as soon as its range is found and the pass stops when all of them are found.
+         *
+         * @return found range (or null) for every target
+         */
+        public Range[] findRanges(long... targets) {
+            final Range[] ranges = new Range[targets.length];
+            // Indexes of targets without a range yet in [0, open)
+            final int[] pending = new int[targets.length];
+            for (int i = 0; i < pending.length; i++) {
+                pending[i] = i;
             }
+            int open = pending.length;
+            for (int to = 2; to < prefixSums.length && open > 0; to++) {
+                for (int i = 0; i < open; i++) {
+                    final int t = pending[i];
+                    // The first position of the prefix gives the longest range ending here
+                    final int from = firstPrefixPositions.get(prefixSums[to] - targets[t]);
+                    if (from >= 0 && from <= to - 2) {
+                        ranges[t] = new Range(from, to, min(from, to), max(from, to));
+                        pending[i--] = pending[--open];
+                    }
+                }
+            }
+            return ranges;
         }
 
-        return false;
+        /**
+         * @return minimal value in range [from, to)
+         */
+        public long min(int from, int to) {
+            final int k = 31 - Integer.numberOfLeadingZeros(to - from);
+            return Math.min(minTable[k][from], minTable[k][to - (1 << k)]);
+        }
+
+        /**
+         * @return maximal value in range [from, to)
+         */
+        public long max(int from, int to) {
+            final int k = 31 - Integer.numberOfLeadingZeros(to - from);
+            return Math.max(maxTable[k][from], maxTable[k][to - (1 << k)]);
+        }
+    }
+
+    /**
+     * Range [from, to) of the sequence with its minimal and maximal values
+     */
+    private static record Range(int from, int to, long min, long max) {
     }
 
+    /**
+     * Reads numbers separated by any non-digit symbols directly from bytes without creating strings.
+     */
+    private static final class NumberReader implements AutoCloseable {
+        private final InputStream in;
+        private final byte[] buffer = new byte[1 << 16];
+        private int pos;
+        private int limit;
+        private long value;
+
+        public NumberReader(InputStream in) {
+            this.in = in;
+        }
+
+        public boolean next() throws IOException {
+            int c = read();
+            while (c != -1 && c != '-' && (c < '0' || c > '9')) {
+                c = read();
+            }
+            if (c == -1) {
+                return false;
+            }
+            final boolean negative = c == '-';
+            if (negative) {
+                c = read();
+            }
+            long v = 0;
+            while (c >= '0' && c <= '9') {
+                v = v * 10 + (c - '0');
+                c = read();
+            }
+            value = negative ? -v : v;
+            return true;
+        }
+
+        public long value() {
+            return value;
+        }
+
+        private int read() throws IOException {
+            if (pos == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                pos = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[pos++];
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
 }
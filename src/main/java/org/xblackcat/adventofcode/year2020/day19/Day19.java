@@ -169,13 +169,7 @@ public class Day19 {
                 processor.addRule(ruleId, ruleText);
             }
 
-            int totalMatches = 0;
-            while ((line = reader.readLine()) != null) {
-                boolean matches = processor.matches(line);
-                if (matches) {
-                    totalMatches++;
-                }
-            }
+            final long totalMatches = processor.compile().countMatches(reader.lines());
 
             System.out.println("\nTotal matches: " + totalMatches);
         }
@@ -207,13 +201,7 @@ public class Day19 {
                 processor.addRule(ruleId, ruleText);
             }
 
-            int totalMatches = 0;
-            while ((line = reader.readLine()) != null) {
-                boolean matches = processor.matches(line);
-                if (matches) {
-                    totalMatches++;
-                }
-            }
+            final long totalMatches = processor.compile().countMatches(reader.lines());
 
             System.out.println("\nTotal matches: " + totalMatches);
         }
@@ -53,21 +53,6 @@ record BulkRule(int id, Rule[]... rules) implements Rule {
         return new Match(-1, builder.toString());
     }
 
-    @Override
-    public Set<String> getMatchSuffixes(String text) {
-        Set<String> result = new HashSet<>();
-        for (Rule[] sequences : rules) {
-            Set<String> suffixes = Set.of(text);
-            for (Rule r : sequences) {
-                suffixes = suffixes.stream().map(r::getMatchSuffixes).collect(HashSet::new, Set::addAll, Set::addAll);
-            }
-
-            result.addAll(suffixes);
-        }
-
-        return result;
-    }
-
     @Override
     public int test(String text, int offset) {
         for (Rule[] sequences : rules) {
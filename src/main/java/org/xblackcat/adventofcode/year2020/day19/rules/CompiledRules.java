@@ -0,0 +1,176 @@
+package org.xblackcat.adventofcode.year2020.day19.rules;
+
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Rule table compiled into flat arrays of productions and matched with Earley recognizer. Any recursive rules
+ * (including left-recursive ones) are supported and the text is never split into substrings.
+ * <p>
+ * Symbols of productions are rule indexes (non-negative values) or literals (encoded as {@code -literalIdx - 1}).
+ * <p>
+ * The object is immutable so a single instance could validate messages from many threads at once.
+ */
+public final class CompiledRules {
+    private static final int DOT_BITS = 8;
+    private static final int DOT_MASK = (1 << DOT_BITS) - 1;
+    /**
+     * Limits of the item encoding: the dot takes {@link #DOT_BITS} bits and the production index takes the rest of
+     * the lower 32 bits.
+     */
+    static final int MAX_SEQUENCE_LENGTH = DOT_MASK;
+    static final int MAX_PRODUCTIONS = 1 << (32 - DOT_BITS);
+
+    private final int startRule;
+    private final String[] literals;
+    private final int[] productionRules;
+    private final int[][] productionSymbols;
+    private final int[][] ruleProductions;
+
+    CompiledRules(int startRule, String[] literals, int[] productionRules, int[][] productionSymbols, int[][] ruleProductions) {
+        this.startRule = startRule;
+        this.literals = literals;
+        this.productionRules = productionRules;
+        this.productionSymbols = productionSymbols;
+        this.ruleProductions = ruleProductions;
+    }
+
+    public boolean matches(String text) {
+        return matches(text, 0);
+    }
+
+    /**
+     * Counts matching messages on the common fork-join pool. The stream is consumed in parallel.
+     */
+    public long countMatches(Stream<String> messages) {
+        return countMatches(messages, ForkJoinPool.commonPool());
+    }
+
+    public long countMatches(Stream<String> messages, ForkJoinPool pool) {
+        return pool.submit(() -> messages.parallel().filter(this::matches).count()).join();
+    }
+
+    /**
+     * Validates messages on the common fork-join pool.
+     *
+     * @return bitmap where bit {@code i} is set if the message {@code i} matches the rules
+     */
+    public BitSet matchBitmap(List<String> messages) {
+        return matchBitmap(messages, ForkJoinPool.commonPool());
+    }
+
+    public BitSet matchBitmap(List<String> messages, ForkJoinPool pool) {
+        final int size = messages.size();
+        final long[] words = new long[(size + 63) >> 6];
+        // Every task fills its own word so no synchronization is needed
+        pool.submit(() -> IntStream.range(0, words.length).parallel().forEach(w -> {
+            long word = 0;
+            for (int i = w << 6, end = Math.min(size, i + 64); i < end; i++) {
+                if (matches(messages.get(i))) {
+                    word |= 1L << i;
+                }
+            }
+            words[w] = word;
+        })).join();
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Checks if the part of the text starting from the offset matches the main rule completely.
+     */
+    public boolean matches(String text, int offset) {
+        final int length = text.length() - offset;
+        final TLongArrayList[] items = new TLongArrayList[length + 1];
+        final TLongHashSet[] seen = new TLongHashSet[length + 1];
+
+        for (int p : ruleProductions[startRule]) {
+            add(items, seen, 0, item(p, 0, 0));
+        }
+
+        for (int pos = 0; pos <= length; pos++) {
+            final TLongArrayList current = items[pos];
+            if (current == null) {
+                continue;
+            }
+            for (int k = 0; k < current.size(); k++) {
+                final long item = current.getQuick(k);
+                final int production = production(item);
+                final int dot = dot(item);
+                final int origin = origin(item);
+                final int[] symbols = productionSymbols[production];
+
+                if (dot == symbols.length) {
+                    // Complete: rules have no empty productions so the origin set is already final
+                    final int rule = productionRules[production];
+                    final TLongArrayList parents = items[origin];
+                    for (int j = 0; j < parents.size(); j++) {
+                        final long parent = parents.getQuick(j);
+                        final int[] parentSymbols = productionSymbols[production(parent)];
+                        final int parentDot = dot(parent);
+                        if (parentDot < parentSymbols.length && parentSymbols[parentDot] == rule) {
+                            add(items, seen, pos, parent + 1);
+                        }
+                    }
+                } else if (symbols[dot] >= 0) {
+                    // Predict
+                    for (int p : ruleProductions[symbols[dot]]) {
+                        add(items, seen, pos, item(p, 0, pos));
+                    }
+                } else {
+                    // Scan
+                    final String literal = literals[-symbols[dot] - 1];
+                    if (literal.length() <= length - pos && text.regionMatches(offset + pos, literal, 0, literal.length())) {
+                        add(items, seen, pos + literal.length(), item + 1);
+                    }
+                }
+            }
+        }
+
+        final TLongArrayList last = items[length];
+        if (last == null) {
+            return false;
+        }
+        for (int k = 0; k < last.size(); k++) {
+            final long item = last.getQuick(k);
+            final int production = production(item);
+            if (origin(item) == 0 &&
+                    productionRules[production] == startRule &&
+                    dot(item) == productionSymbols[production].length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void add(TLongArrayList[] items, TLongHashSet[] seen, int pos, long item) {
+        if (seen[pos] == null) {
+            seen[pos] = new TLongHashSet();
+            items[pos] = new TLongArrayList();
+        }
+        if (seen[pos].add(item)) {
+            items[pos].add(item);
+        }
+    }
+
+    private static long item(int production, int dot, int origin) {
+        return ((long) origin << 32) | ((long) production << DOT_BITS) | dot;
+    }
+
+    private static int production(long item) {
+        return (int) item >>> DOT_BITS;
+    }
+
+    private static int dot(long item) {
+        return (int) item & DOT_MASK;
+    }
+
+    private static int origin(long item) {
+        return (int) (item >>> 32);
+    }
+}
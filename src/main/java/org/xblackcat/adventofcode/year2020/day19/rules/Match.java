@@ -1,8 +1,5 @@
 package org.xblackcat.adventofcode.year2020.day19.rules;
 
-import java.util.Collections;
-import java.util.Set;
-
 record Match(int id, String value) implements Rule {
     static Rule of(int id, String ruleText) {
         if (ruleText.startsWith("\"") && ruleText.endsWith("\"")) {
@@ -21,15 +18,6 @@ record Match(int id, String value) implements Rule {
         }
     }
 
-    @Override
-    public Set<String> getMatchSuffixes(String text) {
-        if (text.regionMatches(0, value, 0, value.length())) {
-            return Set.of(text.substring(value.length()));
-        } else {
-            return Collections.emptySet();
-        }
-    }
-
     @Override
     public Rule pack() {
         return this;
@@ -2,8 +2,6 @@ package org.xblackcat.adventofcode.year2020.day19.rules;
 
 import gnu.trove.map.TIntObjectMap;
 
-import java.util.Set;
-
 /**
  *
  */
@@ -21,15 +19,6 @@ public record RefRule(int id, int refId, TIntObjectMap<Rule> ruleCache) implemen
         return rule.test(text, offset);
     }
 
-    @Override
-    public Set<String> getMatchSuffixes(String text) {
-        final Rule rule = getRule();
-        if (rule == null) {
-            throw new IllegalStateException("Referencing unknown rule #" + refId);
-        }
-        return rule.getMatchSuffixes(text);
-    }
-
     @Override
     public Rule pack() {
         return getRule();
@@ -1,7 +1,5 @@
 package org.xblackcat.adventofcode.year2020.day19.rules;
 
-import java.util.Set;
-
 sealed interface Rule permits BulkRule, Match, RefRule {
     /**
      * Returns 0 if rule can't be applied to specified position in the text
@@ -12,8 +10,6 @@ sealed interface Rule permits BulkRule, Match, RefRule {
      */
     int test(String text, int offset);
 
-    Set<String> getMatchSuffixes(String text);
-
     Rule pack();
 
     default boolean canBePacked() {
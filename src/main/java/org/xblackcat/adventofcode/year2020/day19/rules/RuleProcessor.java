@@ -1,12 +1,17 @@
 package org.xblackcat.adventofcode.year2020.day19.rules;
 
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -18,9 +23,10 @@ public class RuleProcessor {
     private static final Pattern TOKEN_PATTERN = Pattern.compile("\\d+|\\||\"[^\"]+\"");
 
     private final TIntObjectMap<Rule> ruleCache = new TIntObjectHashMap<>();
-    private final Rule mainRule = new RefRule(0, ruleCache);
+    private CompiledRules compiled;
 
     public void addRule(int ruleId, String ruleText) {
+        compiled = null;
         Rule simpleRule = Match.of(ruleId, ruleText);
         if (simpleRule != null) {
             ruleCache.put(ruleId, simpleRule);
@@ -70,6 +76,7 @@ public class RuleProcessor {
     }
 
     public void packRules() {
+        compiled = null;
         System.out.println("Before pack: ");
         ruleCache.forEachValue(r -> {
             System.out.println(r);
@@ -97,9 +104,81 @@ public class RuleProcessor {
     }
 
     public boolean matches(String line) {
-        final Set<String> suffixes = mainRule.getMatchSuffixes(line);
-        boolean matches = suffixes.contains("");
-        System.out.println(line + "\n-> " + matches + " " + suffixes);
-        return matches;
+        if (compiled == null) {
+            compiled = compile();
+        }
+        return compiled.matches(line);
+    }
+
+    /**
+     * Compiles the current rule table into a matcher of the rule #0
+     */
+    public CompiledRules compile() {
+        final TIntIntMap ruleIndexes = new TIntIntHashMap(ruleCache.size(), 0.5f, -1, -1);
+        for (int id : ruleCache.keys()) {
+            ruleIndexes.put(id, ruleIndexes.size());
+        }
+        if (!ruleIndexes.containsKey(0)) {
+            throw new IllegalStateException("Main rule #0 is not defined");
+        }
+
+        final List<String> literals = new ArrayList<>();
+        final TObjectIntMap<String> literalIndexes = new TObjectIntHashMap<>(16, 0.5f, -1);
+        final TIntList productionRules = new TIntArrayList();
+        final List<int[]> productionSymbols = new ArrayList<>();
+        final int[][] ruleProductions = new int[ruleIndexes.size()][];
+
+        ruleCache.forEachEntry((id, rule) -> {
+            final int ruleIdx = ruleIndexes.get(id);
+            final Rule[][] alternatives = rule instanceof BulkRule b ? b.rules() : new Rule[][]{{rule}};
+            ruleProductions[ruleIdx] = new int[alternatives.length];
+            for (int i = 0; i < alternatives.length; i++) {
+                final Rule[] sequence = alternatives[i];
+                if (sequence.length > CompiledRules.MAX_SEQUENCE_LENGTH) {
+                    throw new IllegalStateException(
+                            "Rule #" + id + " has " + sequence.length + " sub-rules in a sequence while at most " +
+                                    CompiledRules.MAX_SEQUENCE_LENGTH + " are supported"
+                    );
+                }
+                if (productionRules.size() == CompiledRules.MAX_PRODUCTIONS) {
+                    throw new IllegalStateException(
+                            "Rules have more than " + CompiledRules.MAX_PRODUCTIONS + " alternatives in total"
+                    );
+                }
+                final int[] symbols = new int[sequence.length];
+                for (int j = 0; j < sequence.length; j++) {
+                    final Rule r = sequence[j];
+                    if (r instanceof Match m) {
+                        int literalIdx = literalIndexes.get(m.value());
+                        if (literalIdx < 0) {
+                            literalIdx = literals.size();
+                            literals.add(m.value());
+                            literalIndexes.put(m.value(), literalIdx);
+                        }
+                        symbols[j] = -literalIdx - 1;
+                    } else if (r instanceof RefRule ref) {
+                        final int refIdx = ruleIndexes.get(ref.refId());
+                        if (refIdx < 0) {
+                            throw new IllegalStateException("Referencing unknown rule #" + ref.refId());
+                        }
+                        symbols[j] = refIdx;
+                    } else {
+                        throw new IllegalStateException("Nested rule can't be compiled: " + r);
+                    }
+                }
+                ruleProductions[ruleIdx][i] = productionRules.size();
+                productionRules.add(ruleIdx);
+                productionSymbols.add(symbols);
+            }
+            return true;
+        });
+
+        return new CompiledRules(
+                ruleIndexes.get(0),
+                literals.toArray(String[]::new),
+                productionRules.toArray(),
+                productionSymbols.toArray(int[][]::new),
+                ruleProductions
+        );
     }
 }
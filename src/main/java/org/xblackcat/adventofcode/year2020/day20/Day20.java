@@ -272,15 +272,12 @@ public class Day20 {
         // Part 1
         List<Tile> tiles = loadTiles("/year2020/day20.txt");
 
-        int size = (int) Math.sqrt(tiles.size());
-
-        final PlacedTile[][] puzzle = new PlacedTile[size][size];
-        Set<Tile> usedTiles = new HashSet<>();
-
-        if (!fillTiles(tiles, puzzle, usedTiles, 0, size)) {
+        final PlacedTile[][] puzzle = new PuzzleAssembler(tiles).assemble();
+        if (puzzle == null) {
             System.out.println("Nope...");
             return;
         }
+        final int size = puzzle.length;
         System.out.println("Result: " +
                                    (puzzle[0][0].tile().number() *
                                            puzzle[0][size - 1].tile().number() *
@@ -289,70 +286,86 @@ public class Day20 {
 
         final Image image = Image.from(puzzle);
         final SeaMonster monster = new SeaMonster();
-        for (Transform t : Transform.values()) {
-            final Image searchImage = new Image(t.transform(image.raw()));
+        final int amount = monster.eatImage(image);
+        System.out.println("Monsters: " + amount);
+        System.out.println("Water: " + image.countPixels());
+
+//        checkGenerated();
+    }
 
-            final int amount = monster.eatImage(searchImage);
-            if (amount > 0) {
-                System.out.println(t);
-                System.out.println("Monsters: " + amount);
+    /**
+     * Assembles random puzzles (from a single tile up to 12x12) with randomly transformed tiles. The edge between the
+     * two top left tiles is a palindrome so the tile on its right could be matched by a flipped transform as well.
+     */
+    private static void checkGenerated() {
+        final Random random = new Random(42);
+        final Transform[] transforms = Transform.values();
+        int puzzles = 0;
+        while (puzzles < 200) {
+            final int size = 1 + random.nextInt(12);
+            final int pixels = size * 9 + 1;
+            final boolean[][] grid = new boolean[pixels][pixels];
+            for (boolean[] row : grid) {
+                for (int x = 0; x < pixels; x++) {
+                    row[x] = random.nextBoolean();
+                }
+            }
+            for (int y = 0; y < 5; y++) {
+                grid[9 - y][9] = grid[y][9];
+            }
 
-                int water = 0;
-                for (var row : searchImage.raw()) {
-                    for (char cell : row) {
-                        if (cell == '#') {
-                            water++;
+            final List<Tile> tiles = new ArrayList<>();
+            for (int row = 0; row < size; row++) {
+                for (int column = 0; column < size; column++) {
+                    final char[][] part = new char[10][10];
+                    for (int y = 0; y < 10; y++) {
+                        for (int x = 0; x < 10; x++) {
+                            part[y][x] = grid[row * 9 + y][column * 9 + x] ? '#' : '.';
                         }
                     }
+                    final List<String> chunk = new ArrayList<>();
+                    chunk.add("Tile " + (row * size + column + 1) + ":");
+                    for (char[] line : transforms[random.nextInt(transforms.length)].transform(part)) {
+                        chunk.add(new String(line));
+                    }
+                    tiles.add(Tile.of(chunk));
                 }
-
-                System.out.println("Water: " + water);
             }
-        }
-    }
-
-    private static boolean fillTiles(List<Tile> tiles, PlacedTile[][] image, Set<Tile> usedTiles, int pos, int size) {
-        if (usedTiles.size() == tiles.size()) {
-            return true;
-        }
-        for (Tile tile : tiles) {
-            if (usedTiles.contains(tile)) {
+            if (!hasUniqueEdges(tiles, size)) {
                 continue;
             }
-            final int x = pos % size;
-            final int y = pos / size;
-            Set<Transform> transforms = getPossibleTransformsFor(image, tile, x, y);
-            if (transforms.isEmpty()) {
-                continue;
+            puzzles++;
+
+            final Set<Long> corners = new HashSet<>(List.of(1L, (long) size, (long) size * (size - 1) + 1, (long) size * size));
+            Collections.shuffle(tiles, random);
+            final PlacedTile[][] puzzle = new PuzzleAssembler(tiles).assemble();
+            if (puzzle == null) {
+                throw new IllegalStateException("Puzzle " + puzzles + " (" + size + "x" + size + ") is not assembled");
             }
-            usedTiles.add(tile);
-            for (Transform transform : transforms) {
-                image[x][y] = new PlacedTile(tile, transform);
-                if (fillTiles(tiles, image, usedTiles, pos + 1, size)) {
-                    return true;
-                }
+            final Set<Long> found = new HashSet<>(List.of(
+                    puzzle[0][0].tile().number(),
+                    puzzle[0][size - 1].tile().number(),
+                    puzzle[size - 1][0].tile().number(),
+                    puzzle[size - 1][size - 1].tile().number()
+            ));
+            if (!found.equals(corners)) {
+                throw new IllegalStateException("Puzzle " + puzzles + " has wrong corners: " + found);
             }
-            usedTiles.remove(tile);
         }
-        return false;
+        System.out.println("Generated puzzles are assembled: " + puzzles);
     }
 
-
-    private static Set<Transform> getPossibleTransformsFor(
-            PlacedTile[][] image,
-            Tile tile,
-            int x,
-            int y
-    ) {
-        final EnumSet<Transform> transforms = EnumSet.allOf(Transform.class);
-        if (x > 0) {
-            transforms.retainAll(tile.canBePlacedBottomOf(image[x - 1][y].getBottomSide()));
-        }
-        if (y > 0) {
-            transforms.retainAll(tile.canBePlacedRightOf(image[x][y - 1].getRightSide()));
+    /**
+     * Checks that every inner edge is shared by exactly two tiles and every border edge belongs to one tile only
+     */
+    private static boolean hasUniqueEdges(List<Tile> tiles, int size) {
+        final Map<Integer, Integer> counts = new HashMap<>();
+        for (Tile tile : tiles) {
+            for (int side : new int[]{tile.top(), tile.right(), tile.bottom(), tile.left()}) {
+                counts.merge(Math.min(side, Transform.flipTileSide(side)), 1, Integer::sum);
+            }
         }
-
-        return transforms;
+        return counts.size() == 2 * size * (size - 1) + 4 * size && counts.values().stream().allMatch(c -> c <= 2);
     }
 
     private static List<Tile> loadTiles(String name) throws IOException {
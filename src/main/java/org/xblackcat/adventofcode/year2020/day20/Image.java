@@ -1,33 +1,65 @@
 package org.xblackcat.adventofcode.year2020.day20;
 
-import java.util.Arrays;
-import java.util.stream.Collectors;
-
 /**
- *
+ * Square image stored as bit rows: pixel {@code (row, column)} is bit {@code column & 63} of {@code rows[row][column >> 6]}
  */
-public record Image(char[][] raw) {
+public record Image(int size, long[][] rows) {
     public static Image from(PlacedTile[][] tiles) {
         final int sizeTiles = tiles.length;
-        char[][] image = new char[sizeTiles << 3][sizeTiles << 3];
+        final int size = sizeTiles << 3;
+        final long[][] rows = new long[size][(size + 63) >> 6];
         int x = 0;
-        int y = 0;
         for (PlacedTile[] column : tiles) {
-            y = 0;
+            int y = 0;
             for (PlacedTile cell : column) {
                 final char[][] part = cell.getPart();
                 for (int i = 0; i < 8; i++) {
-                    System.arraycopy(part[i], 0, image[x + i], y, 8);
+                    for (int j = 0; j < 8; j++) {
+                        if (part[i][j] == '#') {
+                            set(rows[x + i], y + j);
+                        }
+                    }
                 }
                 y += 8;
             }
             x += 8;
         }
-        return new Image(image);
+        return new Image(size, rows);
+    }
+
+    public boolean get(int row, int column) {
+        return (rows[row][column >> 6] & (1L << column)) != 0;
+    }
+
+    public void clear(int row, int column) {
+        rows[row][column >> 6] &= ~(1L << column);
+    }
+
+    public int countPixels() {
+        int amount = 0;
+        for (long[] row : rows) {
+            for (long word : row) {
+                amount += Long.bitCount(word);
+            }
+        }
+        return amount;
+    }
+
+    private static void set(long[] row, int column) {
+        row[column >> 6] |= 1L << column;
     }
 
     @Override
     public String toString() {
-        return Arrays.stream(raw).map(String::new).collect(Collectors.joining("\n"));
+        final StringBuilder str = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                str.append('\n');
+            }
+            for (int j = 0; j < size; j++) {
+                str.append(get(i, j) ? '#' : '.');
+            }
+        }
+        return str.toString();
     }
 }
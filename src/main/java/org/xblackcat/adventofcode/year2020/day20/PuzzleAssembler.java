@@ -0,0 +1,161 @@
+package org.xblackcat.adventofcode.year2020.day20;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.util.List;
+
+/**
+ * Assembles the image from tiles using an index of tile sides. Every side of the image inner part is shared by exactly
+ * two tiles so each tile could be placed by looking up its already placed top or left neighbour.
+ */
+public class PuzzleAssembler {
+    private static final Transform[] TRANSFORMS = Transform.values();
+
+    private final List<Tile> tiles;
+    /**
+     * Side (in its canonical form) -> indexes of the tiles which have the side
+     */
+    private final TIntObjectMap<TIntList> sides = new TIntObjectHashMap<>();
+
+    public PuzzleAssembler(List<Tile> tiles) {
+        this.tiles = tiles;
+        for (int i = 0; i < tiles.size(); i++) {
+            final Tile tile = tiles.get(i);
+            index(tile.top(), i);
+            index(tile.right(), i);
+            index(tile.bottom(), i);
+            index(tile.left(), i);
+        }
+    }
+
+    /**
+     * @return placed tiles as {@code puzzle[row][column]} or {@code null} if tiles can't be assembled into a square
+     */
+    public PlacedTile[][] assemble() {
+        final int size = (int) Math.sqrt(tiles.size());
+        if (size * size != tiles.size()) {
+            return null;
+        }
+
+        if (size == 1) {
+            // A single tile has no neighbours to be matched with
+            return new PlacedTile[][]{{new PlacedTile(tiles.get(0), Transform.None)}};
+        }
+
+        final PlacedTile corner = findTopLeftCorner();
+        if (corner == null) {
+            return null;
+        }
+
+        final PlacedTile[][] puzzle = new PlacedTile[size][size];
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                final PlacedTile tile;
+                if (row == 0 && column == 0) {
+                    tile = corner;
+                } else if (column == 0) {
+                    tile = placeBottomOf(puzzle[row - 1][0]);
+                } else {
+                    tile = placeRightOf(puzzle[row][column - 1], row == 0 ? null : puzzle[row - 1][column]);
+                }
+                if (tile == null) {
+                    return null;
+                }
+                puzzle[row][column] = tile;
+            }
+        }
+        return puzzle;
+    }
+
+    private PlacedTile findTopLeftCorner() {
+        for (Tile tile : tiles) {
+            int unmatched = 0;
+            if (isBorder(tile.top())) {
+                unmatched++;
+            }
+            if (isBorder(tile.right())) {
+                unmatched++;
+            }
+            if (isBorder(tile.bottom())) {
+                unmatched++;
+            }
+            if (isBorder(tile.left())) {
+                unmatched++;
+            }
+            if (unmatched != 2) {
+                continue;
+            }
+
+            for (Transform t : TRANSFORMS) {
+                if (isBorder(t.getTop(tile)) && isBorder(t.getLeft(tile))) {
+                    return new PlacedTile(tile, t);
+                }
+            }
+        }
+        return null;
+    }
+
+    private PlacedTile placeRightOf(PlacedTile left, PlacedTile top) {
+        final int side = left.getRightSide();
+        final Tile tile = getNeighbour(left.tile(), side);
+        if (tile == null) {
+            return null;
+        }
+        for (Transform t : TRANSFORMS) {
+            if (t.getLeft(tile) != side) {
+                continue;
+            }
+            // A palindromic left side is matched by a flipped transform too, so the top side is always checked
+            if (top == null ? isBorder(t.getTop(tile)) : t.getTop(tile) == top.getBottomSide()) {
+                return new PlacedTile(tile, t);
+            }
+        }
+        return null;
+    }
+
+    private PlacedTile placeBottomOf(PlacedTile top) {
+        final int side = top.getBottomSide();
+        final Tile tile = getNeighbour(top.tile(), side);
+        if (tile == null) {
+            return null;
+        }
+        for (Transform t : TRANSFORMS) {
+            if (t.getTop(tile) == side && isBorder(t.getLeft(tile))) {
+                return new PlacedTile(tile, t);
+            }
+        }
+        return null;
+    }
+
+    private Tile getNeighbour(Tile tile, int side) {
+        final TIntList candidates = sides.get(canonical(side));
+        for (int i = 0; i < candidates.size(); i++) {
+            final Tile candidate = tiles.get(candidates.get(i));
+            if (candidate != tile) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private boolean isBorder(int side) {
+        return sides.get(canonical(side)).size() == 1;
+    }
+
+    private void index(int side, int tileIdx) {
+        final int key = canonical(side);
+        TIntList list = sides.get(key);
+        if (list == null) {
+            list = new TIntArrayList(2);
+            sides.put(key, list);
+        }
+        list.add(tileIdx);
+    }
+
+    private static int canonical(int side) {
+        return Math.min(side, Transform.flipTileSide(side));
+    }
+}
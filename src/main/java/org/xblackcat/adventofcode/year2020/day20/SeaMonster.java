@@ -14,7 +14,11 @@ public class SeaMonster {
              #  #  #  #  #  #  \s
             """.lines().map(String::toCharArray).toArray(char[][]::new);
 
-    private static final Pixel[] SEA_MONSTER_POSITIONS;
+    /**
+     * Monster pixels in all 8 orientations. Instead of transforming the whole image the transformed monsters are
+     * searched in the original one.
+     */
+    private static final Pixel[][] SEA_MONSTER_ORIENTATIONS;
 
     static {
         List<Pixel> pixels = new ArrayList<>();
@@ -23,45 +27,114 @@ public class SeaMonster {
             for (int i = 0, rowLength = row.length; i < rowLength; i++) {
                 char cell = row[i];
                 if (cell == '#') {
-                    pixels.add(new Pixel(i, j));
+                    pixels.add(new Pixel(j, i));
                 }
             }
         }
-        SEA_MONSTER_POSITIONS = pixels.toArray(new Pixel[0]);
+
+        SEA_MONSTER_ORIENTATIONS = new Pixel[8][];
+        Pixel[] orientation = pixels.toArray(new Pixel[0]);
+        for (int i = 0; i < 4; i++) {
+            SEA_MONSTER_ORIENTATIONS[i << 1] = orientation;
+            SEA_MONSTER_ORIENTATIONS[(i << 1) + 1] = transform(orientation, true);
+            orientation = transform(orientation, false);
+        }
     }
 
     public SeaMonster() {
     }
 
+    /**
+     * Searches monsters in every orientation and removes their pixels from the image.
+     *
+     * @return amount of found monsters
+     */
     public int eatImage(Image img) {
-        // Search for monster
+        final int words = img.rows()[0].length;
+        final long[][] matches = new long[img.size()][words];
+        final long[] shifted = new long[words];
+
         int amount = 0;
-        char[][] raw = img.raw();
-        for (int i = 0, rawLength = raw.length - SEA_MONSTER[0].length; i < rawLength; i++) {
-            char[] column = raw[i];
-            for (int j = 0, columnLength = column.length - SEA_MONSTER.length; j < columnLength; j++) {
-                boolean found = true;
-                for (Pixel p : SEA_MONSTER_POSITIONS) {
-                    if (raw[i + p.dx][j + p.dy] != '#') {
-                        found = false;
-                        break;
+        for (Pixel[] monster : SEA_MONSTER_ORIENTATIONS) {
+            int height = 0;
+            int width = 0;
+            for (Pixel p : monster) {
+                height = Math.max(height, p.dRow + 1);
+                width = Math.max(width, p.dColumn + 1);
+            }
+
+            // Monster could start only in columns [0, size - width]
+            final int columns = img.size() - width + 1;
+            for (int row = 0; row + height <= img.size(); row++) {
+                final long[] match = matches[row];
+                fillLow(match, columns);
+                for (Pixel p : monster) {
+                    shiftRight(img.rows()[row + p.dRow], p.dColumn, shifted);
+                    for (int w = 0; w < words; w++) {
+                        match[w] &= shifted[w];
                     }
                 }
+            }
 
-                if (!found) {
-                    continue;
-                }
+            for (int row = 0; row + height <= img.size(); row++) {
+                final long[] match = matches[row];
+                for (int w = 0; w < words; w++) {
+                    long word = match[w];
+                    while (word != 0) {
+                        final int column = (w << 6) + Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
 
-                amount++;
-                for (Pixel p : SEA_MONSTER_POSITIONS) {
-                    raw[i + p.dx][j + p.dy] = '.';
+                        amount++;
+                        for (Pixel p : monster) {
+                            img.clear(row + p.dRow, column + p.dColumn);
+                        }
+                    }
+                    match[w] = 0;
                 }
             }
         }
         return amount;
     }
 
+    private static void fillLow(long[] row, int bits) {
+        for (int w = 0; w < row.length; w++) {
+            final int left = bits - (w << 6);
+            row[w] = left >= 64 ? -1L : left <= 0 ? 0 : (1L << left) - 1;
+        }
+    }
+
+    /**
+     * Shifts the bit row so the bit {@code i + shift} of the source becomes the bit {@code i} of the target.
+     */
+    private static void shiftRight(long[] source, int shift, long[] target) {
+        final int wordShift = shift >> 6;
+        final int bitShift = shift & 63;
+        for (int w = 0; w < target.length; w++) {
+            final int from = w + wordShift;
+            long word = from < source.length ? source[from] >>> bitShift : 0;
+            if (bitShift != 0 && from + 1 < source.length) {
+                word |= source[from + 1] << (64 - bitShift);
+            }
+            target[w] = word;
+        }
+    }
+
+    /**
+     * Rotates the pixels clockwise or flips them and moves the result back to non-negative offsets.
+     */
+    private static Pixel[] transform(Pixel[] pixels, boolean flip) {
+        int maxRow = 0;
+        for (Pixel p : pixels) {
+            maxRow = Math.max(maxRow, p.dRow);
+        }
+        final Pixel[] result = new Pixel[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            final Pixel p = pixels[i];
+            result[i] = flip ? new Pixel(maxRow - p.dRow, p.dColumn) : new Pixel(p.dColumn, maxRow - p.dRow);
+        }
+        return result;
+    }
 
-    private record Pixel(int dx, int dy) {
+    private record Pixel(int dRow, int dColumn) {
     }
 }
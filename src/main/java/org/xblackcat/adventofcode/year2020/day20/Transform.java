@@ -7,6 +7,16 @@ import java.util.Arrays;
  */
 public enum Transform {
     None {
+        @Override
+        public int getTop(Tile tile) {
+            return tile.top();
+        }
+
+        @Override
+        public int getLeft(Tile tile) {
+            return tile.left();
+        }
+
         @Override
         public int getRight(Tile tile) {
             return tile.right();
@@ -23,6 +33,16 @@ public enum Transform {
         }
     },
     ClockWise {
+        @Override
+        public int getTop(Tile tile) {
+            return flipTileSide(tile.left());
+        }
+
+        @Override
+        public int getLeft(Tile tile) {
+            return tile.bottom();
+        }
+
         @Override
         public int getRight(Tile tile) {
             return tile.top();
@@ -46,6 +66,16 @@ public enum Transform {
         }
     },
     TurnOver {
+        @Override
+        public int getTop(Tile tile) {
+            return flipTileSide(tile.bottom());
+        }
+
+        @Override
+        public int getLeft(Tile tile) {
+            return flipTileSide(tile.right());
+        }
+
         @Override
         public int getRight(Tile tile) {
             return flipTileSide(tile.left());
@@ -69,6 +99,16 @@ public enum Transform {
         }
     },
     CounterClockWise {
+        @Override
+        public int getTop(Tile tile) {
+            return tile.right();
+        }
+
+        @Override
+        public int getLeft(Tile tile) {
+            return flipTileSide(tile.top());
+        }
+
         @Override
         public int getRight(Tile tile) {
             return flipTileSide(tile.bottom());
@@ -92,6 +132,16 @@ public enum Transform {
         }
     },
     FlipVertical {
+        @Override
+        public int getTop(Tile tile) {
+            return tile.bottom();
+        }
+
+        @Override
+        public int getLeft(Tile tile) {
+            return flipTileSide(tile.left());
+        }
+
         @Override
         public int getRight(Tile tile) {
             return flipTileSide(tile.right());
@@ -115,6 +165,16 @@ public enum Transform {
         }
     },
     FlipHorizontal {
+        @Override
+        public int getTop(Tile tile) {
+            return flipTileSide(tile.top());
+        }
+
+        @Override
+        public int getLeft(Tile tile) {
+            return tile.right();
+        }
+
         @Override
         public int getRight(Tile tile) {
             return tile.left();
@@ -138,6 +198,16 @@ public enum Transform {
         }
     },
     ClockWiseFlip {
+        @Override
+        public int getTop(Tile tile) {
+            return tile.left();
+        }
+
+        @Override
+        public int getLeft(Tile tile) {
+            return tile.top();
+        }
+
         @Override
         public int getRight(Tile tile) {
             return tile.bottom();
@@ -161,6 +231,16 @@ public enum Transform {
         }
     },
     CounterClockWiseFlip {
+        @Override
+        public int getTop(Tile tile) {
+            return flipTileSide(tile.right());
+        }
+
+        @Override
+        public int getLeft(Tile tile) {
+            return flipTileSide(tile.bottom());
+        }
+
         @Override
         public int getRight(Tile tile) {
             return flipTileSide(tile.top());
@@ -189,6 +269,10 @@ public enum Transform {
         return Integer.reverse(value) >>> 22;
     }
 
+    public abstract int getTop(Tile tile);
+
+    public abstract int getLeft(Tile tile);
+
     public abstract int getRight(Tile tile);
 
     public abstract int getBottom(Tile tile);